@@ -0,0 +1,361 @@
+package iris.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Stores test artifacts (screenshots, page sources, diff images) by
+ *         the SHA-256 hash of their content, so an artifact produced many
+ *         times is kept once. Blobs are gzipped under blobs/ and each run
+ *         (one JVM) has an index under runs/&lt;run id&gt;/index.properties
+ *         mapping artifact names to hashes. Every artifact is also written
+ *         as is, under its name, to the reports directory
+ *         (-DartifactStore.reports, default target/failsafe-reports), where
+ *         Jenkins archives and shows it.
+ *
+ *         When the store is first used in a run, runs older than
+ *         -DartifactStore.maxAgeDays (default 14) are removed, then the oldest
+ *         runs are removed until the blobs fit in -DartifactStore.maxMB
+ *         (default 512), and finally any blob no run refers to is deleted. The
+ *         store lives in -DartifactStore, default .iris-artifact-store in the
+ *         user's home directory, so mvn clean leaves the history alone.
+ *         Storing and retention lock the store, and a run's index refers to
+ *         a blob before the blob is written, so runs in other JVMs never
+ *         delete a blob which is being stored.
+ *
+ */
+public class ArtifactStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(ArtifactStore.class);
+
+	/** The store shared by every test in this JVM. */
+	private static ArtifactStore instance;
+
+	/** Guards {@link #instance}, held while the store is created. */
+	private static final Lock instanceLock = new ReentrantLock();
+
+	/** Root directory of the store. */
+	private final File root;
+
+	/** Directory the artifacts are also written to as they are. */
+	private final File reports;
+
+	/** Directory of this run's index. */
+	private final File runDir;
+
+	/** This run's index of artifact names to hashes. */
+	private final Properties index = new Properties();
+
+	/** Largest total size of the blobs, in bytes. */
+	private final long maxBytes;
+
+	/** Oldest run to keep, in milliseconds. */
+	private final long maxAgeMillis;
+
+	/** Guards the index and the blobs, held during file access. */
+	private final Lock lock = new ReentrantLock();
+
+	/**
+	 * Get the store shared by every test in this JVM, creating it (and
+	 * applying the retention limits) on first use.
+	 *
+	 * @return The artifact store.
+	 */
+	public static ArtifactStore get() {
+		instanceLock.lock();
+		try {
+			if (null == instance) {
+				File home = new File(System.getProperty("user.home"), ".iris-artifact-store");
+				instance = new ArtifactStore(new File(System.getProperty("artifactStore", home.getPath())),
+						new File(System.getProperty("artifactStore.reports", "target/failsafe-reports")),
+						Long.getLong("artifactStore.maxMB", 512) * 1024 * 1024,
+						TimeUnit.DAYS.toMillis(Long.getLong("artifactStore.maxAgeDays", 14)));
+				instance.enforceRetention();
+			}
+			return instance;
+		} finally {
+			instanceLock.unlock();
+		}
+	}
+
+	/**
+	 * Constructor, starting a new run.
+	 *
+	 * @param root
+	 *            Root directory of the store.
+	 * @param reports
+	 *            Directory the artifacts are also written to as they are.
+	 * @param maxBytes
+	 *            Largest total size of the blobs, in bytes.
+	 * @param maxAgeMillis
+	 *            Oldest run to keep, in milliseconds.
+	 */
+	public ArtifactStore(File root, File reports, long maxBytes, long maxAgeMillis) {
+		this.root = root;
+		this.reports = reports;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+		String runId = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+		this.runDir = new File(new File(root, "runs"), runId);
+	}
+
+	/**
+	 * Stores an artifact. Content already in the store is not written again.
+	 *
+	 * @param name
+	 *            Name of the artifact within this run, e.g. ScreenShot-test.png.
+	 * @param content
+	 *            The content of the artifact.
+	 * @return The copy of the artifact in the reports directory.
+	 * @throws IOException
+	 *             If the artifact cannot be written.
+	 */
+	public File put(String name, byte[] content) throws IOException {
+		String hash = hash(content);
+		File blob = blobFile(hash);
+
+		lock.lock();
+		try {
+			RandomAccessFile lockFile = openLockFile();
+			try {
+				FileLock storeLock = lockFile.getChannel().lock();
+				try {
+					// Refer to the blob first, so it is never unreferenced
+					index.setProperty(name, hash);
+					runDir.mkdirs();
+					OutputStream out = new FileOutputStream(new File(runDir, "index.properties"));
+					try {
+						index.store(out, "Artifacts of run " + runDir.getName());
+					} finally {
+						out.close();
+					}
+
+					if (!blob.exists()) {
+						blob.getParentFile().mkdirs();
+						File temp = new File(blob.getPath() + ".tmp");
+						out = new GZIPOutputStream(new FileOutputStream(temp));
+						try {
+							out.write(content);
+						} finally {
+							out.close();
+						}
+						if (!temp.renameTo(blob)) {
+							temp.delete();
+							throw new IOException("Could not move " + temp + " to " + blob);
+						}
+					}
+				} finally {
+					storeLock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		File copy = new File(reports, name);
+		copy.getAbsoluteFile().getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(copy);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+
+		logger.debug("Stored artifact {} as {}", name, hash);
+		return copy;
+	}
+
+	/**
+	 * Reads an artifact stored in this run.
+	 *
+	 * @param name
+	 *            Name of the artifact.
+	 * @return The content, or null if there is no such artifact.
+	 * @throws IOException
+	 *             If the artifact cannot be read.
+	 */
+	public byte[] read(String name) throws IOException {
+		lock.lock();
+		try {
+			String hash = index.getProperty(name);
+			if (null == hash) {
+				return null;
+			}
+
+			InputStream in = new GZIPInputStream(new FileInputStream(blobFile(hash)));
+			try {
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					content.write(buffer, 0, read);
+				}
+				return content.toByteArray();
+			} finally {
+				in.close();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes old runs, and then the oldest remaining runs while the blobs are
+	 * over the size limit, and deletes the blobs no remaining run refers to.
+	 */
+	public void enforceRetention() {
+		lock.lock();
+		try {
+			RandomAccessFile lockFile = openLockFile();
+			try {
+				FileLock storeLock = lockFile.getChannel().lock();
+				try {
+					removeOldRuns();
+				} finally {
+					storeLock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		} catch (IOException e) {
+			logger.error("Failed to apply artifact retention\n" + e.getMessage());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the runs and blobs outside the retention limits. Call with the
+	 * store locked.
+	 */
+	private void removeOldRuns() {
+		File[] runs = new File(root, "runs").listFiles();
+		if (null == runs) {
+			return;
+		}
+		Arrays.sort(runs, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+
+		long now = System.currentTimeMillis();
+		int first = 0;
+		while (first < runs.length && now - runs[first].lastModified() > maxAgeMillis) {
+			delete(runs[first++]);
+		}
+
+		Set<String> referenced = referencedHashes(runs, first);
+		while (first < runs.length && blobBytes(referenced) > maxBytes) {
+			delete(runs[first++]);
+			referenced = referencedHashes(runs, first);
+		}
+
+		File[] prefixes = new File(root, "blobs").listFiles();
+		for (File prefix : null == prefixes ? new File[0] : prefixes) {
+			File[] blobs = prefix.listFiles();
+			for (File blob : null == blobs ? new File[0] : blobs) {
+				if (!referenced.contains(blob.getName().replace(".gz", ""))) {
+					blob.delete();
+				}
+			}
+		}
+		logger.info("Artifact store {} holds {} run(s)", root, runs.length - first);
+	}
+
+	/**
+	 * Opens the file which is locked, across JVMs, while the store changes.
+	 */
+	private RandomAccessFile openLockFile() throws IOException {
+		root.mkdirs();
+		return new RandomAccessFile(new File(root, "store.lock"), "rw");
+	}
+
+	private File blobFile(String hash) {
+		return new File(new File(new File(root, "blobs"), hash.substring(0, 2)), hash + ".gz");
+	}
+
+	/**
+	 * Collects the hashes referred to by the runs from the specified index
+	 * onwards.
+	 */
+	private Set<String> referencedHashes(File[] runs, int first) {
+		Set<String> hashes = new HashSet<String>();
+		for (int i = first; i < runs.length; i++) {
+			Properties runIndex = new Properties();
+			try {
+				InputStream in = new FileInputStream(new File(runs[i], "index.properties"));
+				try {
+					runIndex.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				logger.debug("Run {} has no readable index", runs[i]);
+			}
+			for (Object hash : runIndex.values()) {
+				hashes.add((String) hash);
+			}
+		}
+		return hashes;
+	}
+
+	private long blobBytes(Set<String> hashes) {
+		long total = 0;
+		for (String hash : hashes) {
+			total += blobFile(hash).length();
+		}
+		return total;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static String hash(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+}
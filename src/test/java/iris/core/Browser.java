@@ -11,7 +11,7 @@ public enum Browser
     /**
      * Enum defined.
      */
-    CHROME("http://localhost:4444/wd/hub"), FIREFOX(""), IE("c:\\IEDriverServer.exe"), IE_REMOTE("http://iris01:4444/wd/hub"), CHROME_REMOTE("http://iris01:4444/wd/hub");
+    CHROME("http://localhost:4444/wd/hub"), FIREFOX(""), IE("c:\\IEDriverServer.exe"), IE_REMOTE("http://iris01:4444/wd/hub"), CHROME_REMOTE("http://iris01:4444/wd/hub"), FIREFOX_REMOTE("http://iris01:4444/wd/hub");
 
     /**
      * Variable to store the property name of the specific selenium driver.
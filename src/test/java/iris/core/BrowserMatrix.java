@@ -0,0 +1,262 @@
+package iris.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.Suite;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerScheduler;
+import org.junit.runners.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Runs a test class against several browsers at once. Used as
+ *         &#64;RunWith(BrowserMatrix.class) on a test class extending
+ *         {@link IrisSeleniumBase}. The browsers are given by -DbrowserMatrix,
+ *         e.g. -DbrowserMatrix=CHROME_REMOTE,FIREFOX_REMOTE, or else by the
+ *         {@link Browsers} annotation on the class; with neither the class
+ *         runs once on the default browser, as it would without this runner.
+ *
+ *         Each browser gets its own thread, from {@link SessionExecutors},
+ *         and runs the tests of the class one after another, each on its own
+ *         session; the browsers run concurrently, so the matrix takes about as
+ *         long as the slowest browser. Test names get the browser as a
+ *         suffix, e.g. createDWITHINFilter[FIREFOX_REMOTE], so events and
+ *         reports keep the browsers apart. Each browser runs the class's
+ *         &#64;BeforeClass, &#64;AfterClass and class rules for itself; the
+ *         matrix does not run them again around the browsers. Events are
+ *         passed on to JUnit as they happen, one at a time, as the notifier is
+ *         not thread safe, and a browser which fails outside its tests fails
+ *         the class. A summary of each browser is logged and emitted as a
+ *         browser event when it finishes.
+ *
+ */
+public class BrowserMatrix extends Suite {
+
+	private static final Logger logger = LoggerFactory.getLogger(BrowserMatrix.class);
+
+	/**
+	 * The browsers a test class runs against, unless overridden by
+	 * -DbrowserMatrix.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface Browsers {
+		/**
+		 * @return The browsers.
+		 */
+		Browser[] value();
+	}
+
+	/** Runs the tests of the class on one browser. */
+	private static final class BrowserRunner extends BlockJUnit4ClassRunner {
+		private final Browser browser;
+
+		private BrowserRunner(Class<?> testClass, Browser browser) throws InitializationError {
+			super(testClass);
+			this.browser = browser;
+		}
+
+		@Override
+		protected String getName() {
+			return null == browser ? super.getName() : "[" + browser.name() + "]";
+		}
+
+		@Override
+		protected String testName(FrameworkMethod method) {
+			return null == browser ? super.testName(method) : method.getName() + "[" + browser.name() + "]";
+		}
+
+		@Override
+		protected Object createTest() throws Exception {
+			Object test = super.createTest();
+			if (null != browser) {
+				((IrisSeleniumBase) test).setBrowser(browser);
+			}
+			return test;
+		}
+
+		@Override
+		public void run(final RunNotifier notifier) {
+			if (null == browser) {
+				super.run(notifier);
+				return;
+			}
+			final Result result = new Result();
+			RunNotifier local = new RunNotifier();
+			local.addListener(result.createListener());
+			local.addListener(new RunListener() {
+				// The browsers run tests concurrently but the notifier, e.g.
+				// surefire's, is not thread safe, so each event is passed on
+				// as it happens, one at a time. Failures of the runner itself,
+				// e.g. from @BeforeClass, are passed on in the same way.
+
+				@Override
+				public void testStarted(Description description) {
+					synchronized (notifier) {
+						notifier.fireTestStarted(description);
+					}
+				}
+
+				@Override
+				public void testFailure(Failure failure) {
+					synchronized (notifier) {
+						notifier.fireTestFailure(failure);
+					}
+				}
+
+				@Override
+				public void testAssumptionFailure(Failure failure) {
+					synchronized (notifier) {
+						notifier.fireTestAssumptionFailed(failure);
+					}
+				}
+
+				@Override
+				public void testFinished(Description description) {
+					synchronized (notifier) {
+						notifier.fireTestFinished(description);
+					}
+				}
+
+				@Override
+				public void testIgnored(Description description) {
+					synchronized (notifier) {
+						notifier.fireTestIgnored(description);
+					}
+				}
+			});
+
+			long start = System.nanoTime();
+			local.fireTestRunStarted(getDescription());
+			super.run(local);
+			local.fireTestRunFinished(result);
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+			String summary = result.getRunCount() + " test(s), " + result.getFailureCount() + " failed, "
+					+ result.getIgnoreCount() + " ignored in " + elapsed + " ms";
+			logger.info("{} {}: {}", getTestClass().getJavaClass().getSimpleName(), browser.name(), summary);
+			EventStream.emit("browser", getTestClass().getJavaClass().getSimpleName() + " " + browser.name(), elapsed,
+					result.wasSuccessful() ? "passed" : "failed", summary);
+		}
+	}
+
+	/**
+	 * Constructor, called by JUnit.
+	 *
+	 * @param testClass
+	 *            The test class.
+	 * @throws InitializationError
+	 *             If the test class is not valid.
+	 */
+	public BrowserMatrix(Class<?> testClass) throws InitializationError {
+		super(testClass, runners(testClass));
+		final int browsers = getChildren().size();
+		if (browsers > 1) {
+			setScheduler(new RunnerScheduler() {
+				private final ExecutorService executor = SessionExecutors.newExecutor("browser-matrix", browsers);
+				private final List<Future<?>> running = new ArrayList<Future<?>>();
+
+				public void schedule(Runnable childStatement) {
+					running.add(executor.submit(childStatement));
+				}
+
+				public void finished() {
+					Throwable failed = null;
+					try {
+						for (Future<?> future : running) {
+							try {
+								future.get();
+							} catch (ExecutionException e) {
+								logger.error("Browser matrix failed\n" + e.getCause());
+								if (null == failed) {
+									failed = e.getCause();
+								}
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						executor.shutdownNow();
+					}
+					// Thrown from here, JUnit reports it as a failure of the class
+					if (failed instanceof RuntimeException) {
+						throw (RuntimeException) failed;
+					} else if (failed instanceof Error) {
+						throw (Error) failed;
+					} else if (null != failed) {
+						throw new RuntimeException("Browser matrix failed", failed);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Runs the browsers only. Each browser's runner runs the class's own
+	 * class setup and class rules, so they are not run again here.
+	 */
+	@Override
+	protected Statement classBlock(RunNotifier notifier) {
+		return childrenInvoker(notifier);
+	}
+
+	/**
+	 * Get a runner for each browser of the matrix.
+	 */
+	private static List<Runner> runners(Class<?> testClass) throws InitializationError {
+		if (!IrisSeleniumBase.class.isAssignableFrom(testClass)) {
+			throw new InitializationError(testClass.getName() + " does not extend IrisSeleniumBase");
+		}
+		List<Runner> runners = new ArrayList<Runner>();
+		for (Browser browser : browsers(testClass)) {
+			runners.add(new BrowserRunner(testClass, browser));
+		}
+		return runners;
+	}
+
+	/**
+	 * Get the browsers of the matrix, or a single null for the default
+	 * browser.
+	 */
+	private static List<Browser> browsers(Class<?> testClass) throws InitializationError {
+		List<Browser> browsers = new ArrayList<Browser>();
+		String property = System.getProperty("browserMatrix");
+		if (null != property && !property.trim().isEmpty()) {
+			for (String name : property.split(",")) {
+				try {
+					browsers.add(Browser.valueOf(name.trim().toUpperCase()));
+				} catch (IllegalArgumentException e) {
+					throw new InitializationError("Unknown browser in -DbrowserMatrix: " + name.trim());
+				}
+			}
+		} else if (testClass.isAnnotationPresent(Browsers.class)) {
+			for (Browser browser : testClass.getAnnotation(Browsers.class).value()) {
+				browsers.add(browser);
+			}
+		}
+		if (browsers.isEmpty()) {
+			browsers.add(null);
+		}
+		return browsers;
+	}
+}
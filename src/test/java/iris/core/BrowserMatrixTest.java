@@ -0,0 +1,54 @@
+package iris.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+
+/**
+ * @author vickery_b
+ *
+ *         Checks that each browser of a matrix runs the class setup once, and
+ *         that a failure of the class setup fails the run.
+ *
+ */
+public class BrowserMatrixTest {
+
+	/** A test class whose class setup fails; its test never runs. */
+	public static class FailingSetup extends IrisAbstractSelenium {
+		static final AtomicInteger setups = new AtomicInteger();
+
+		@BeforeClass
+		public static void setUpClass() {
+			setups.incrementAndGet();
+			throw new IllegalStateException("class setup failed");
+		}
+
+		@Test
+		public void opens() {
+		}
+	}
+
+	@After
+	public void clearMatrix() {
+		System.clearProperty("browserMatrix");
+	}
+
+	@Test
+	public void reportsClassSetupFailureOfEachBrowser() throws Exception {
+		System.setProperty("browserMatrix", "CHROME,FIREFOX");
+		FailingSetup.setups.set(0);
+
+		Result result = new JUnitCore().run(Request.runner(new BrowserMatrix(FailingSetup.class)));
+
+		assertEquals(2, FailingSetup.setups.get());
+		assertEquals(2, result.getFailureCount());
+		assertEquals(0, result.getRunCount());
+	}
+}
@@ -0,0 +1,270 @@
+package iris.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.internal.AssumptionViolatedException;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Skips the test classes which are not affected by the changes since
+ *         a base revision, given by -DimpactBase (e.g. origin/master). Without
+ *         it every class runs. The changes are the files which differ between
+ *         the base and the working tree, plus untracked files, as reported by
+ *         git; they are mapped to test classes once per JVM:
+ *
+ *         a test class's source, or its generated page object
+ *         (&lt;Class&gt;Page), selects the class; its data file
+ *         (&lt;package&gt;/data/&lt;Class&gt;.txt) selects the class; any
+ *         other test resource selects the classes whose source names the file,
+ *         e.g. DWITHINFilters.csv. A change to iris.core, to pom.xml, or to
+ *         anything else under src selects every class, as does a failure to
+ *         run git. Files outside src, such as documentation, select nothing.
+ *
+ *         Skipped classes are reported as skipped by an assumption failure.
+ *
+ */
+public class ChangeImpactRule implements TestRule {
+
+	private static final Logger logger = LoggerFactory.getLogger(ChangeImpactRule.class);
+
+	/** Test sources. */
+	private static final String JAVA_DIR = "src/test/java/";
+
+	/** Test resources. */
+	private static final String RESOURCES_DIR = "src/test/resources/";
+
+	/** Most time allowed for a git command, in seconds. */
+	private static final int GIT_TIMEOUT_SECONDS = 30;
+
+	/** The selection, worked out on first use. */
+	private static Selection selection;
+
+	/** The classes selected by the changes. */
+	private static final class Selection {
+		/** True if every class runs. */
+		private final boolean all;
+
+		/** The selected classes, by fully qualified name. */
+		private final Set<String> classes;
+
+		private Selection(boolean all, Set<String> classes) {
+			this.all = all;
+			this.classes = classes;
+		}
+	}
+
+	public Statement apply(final Statement base, final Description description) {
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				String testClass = testClassOf(description);
+				if (!isSelected(testClass)) {
+					throw new AssumptionViolatedException(
+							testClass + " is not affected by the changes since " + System.getProperty("impactBase"));
+				}
+				base.evaluate();
+			}
+		};
+	}
+
+	/**
+	 * Get the test class a class rule was applied to. Under
+	 * {@link BrowserMatrix} the rule is applied to each browser's runner,
+	 * whose description is named after the browser and has no class of its
+	 * own, so the class is taken from its tests.
+	 *
+	 * @param description
+	 *            The description the rule was applied to.
+	 * @return The fully qualified name of the test class.
+	 */
+	static String testClassOf(Description description) {
+		if (null != description.getTestClass()) {
+			return description.getTestClass().getName();
+		}
+		for (Description child : description.getChildren()) {
+			String testClass = testClassOf(child);
+			if (null != testClass) {
+				return testClass;
+			}
+		}
+		return description.isSuite() ? null : description.getClassName();
+	}
+
+	/**
+	 * Checks whether a test class is affected by the changes since the base
+	 * revision.
+	 *
+	 * @param testClass
+	 *            The fully qualified name of the test class.
+	 * @return True if the class should run.
+	 */
+	public static boolean isSelected(String testClass) {
+		String base = System.getProperty("impactBase");
+		if (null == base || base.trim().isEmpty()) {
+			return true;
+		}
+		Selection current = selection(base.trim());
+		return current.all || current.classes.contains(testClass);
+	}
+
+	private static synchronized Selection selection(String base) {
+		if (null == selection) {
+			selection = select(base);
+		}
+		return selection;
+	}
+
+	/**
+	 * Maps the changed files to the test classes they affect.
+	 */
+	private static Selection select(String base) {
+		List<String> changed = new ArrayList<String>();
+		try {
+			changed.addAll(git("diff", "--name-only", "--relative", base, "--"));
+			changed.addAll(git("ls-files", "--others", "--exclude-standard"));
+		} catch (Exception e) {
+			logger.warn("Could not diff against {}, running every test: {}", base, e.getMessage());
+			return new Selection(true, new TreeSet<String>());
+		}
+
+		Set<String> classes = new TreeSet<String>();
+		for (String path : changed) {
+			path = path.replace('\\', '/');
+			if (path.startsWith(JAVA_DIR + "iris/core/") || "pom.xml".equals(path)) {
+				return everything(base, path, changed.size());
+			} else if (path.startsWith(JAVA_DIR) && path.endsWith(".java")) {
+				String name = path.substring(JAVA_DIR.length(), path.length() - ".java".length()).replace('/', '.');
+				classes.add(name);
+				if (name.endsWith("Page")) {
+					classes.add(name.substring(0, name.length() - "Page".length()));
+				}
+			} else if (path.startsWith(RESOURCES_DIR) && path.matches(".*/data/[^/]+\\.txt")) {
+				String name = path.substring(RESOURCES_DIR.length(), path.length() - ".txt".length());
+				classes.add(name.replace("/data/", "/").replace('/', '.'));
+			} else if (path.startsWith(RESOURCES_DIR)) {
+				classes.addAll(referencing(path.substring(path.lastIndexOf('/') + 1)));
+			} else if (path.startsWith("src/")) {
+				return everything(base, path, changed.size());
+			}
+		}
+
+		logger.info("{} file(s) changed since {}, running {}", changed.size(), base,
+				classes.isEmpty() ? "no test classes" : classes);
+		EventStream.emit("impact", base, -1, null, changed.size() + " file(s) changed, selected " + classes);
+		return new Selection(false, classes);
+	}
+
+	private static Selection everything(String base, String path, int changed) {
+		logger.info("{} file(s) changed since {}, including {}: running every test", changed, base, path);
+		EventStream.emit("impact", base, -1, null, changed + " file(s) changed, including " + path + ": all");
+		return new Selection(true, new TreeSet<String>());
+	}
+
+	/**
+	 * Get the test classes whose source names a file.
+	 */
+	private static Set<String> referencing(String fileName) {
+		Set<String> classes = new TreeSet<String>();
+		List<File> sources = new ArrayList<File>();
+		collectSources(new File(JAVA_DIR), sources);
+		for (File source : sources) {
+			try {
+				if (read(source).contains(fileName)) {
+					String path = source.getPath().replace('\\', '/');
+					String name = path.substring(path.indexOf(JAVA_DIR) + JAVA_DIR.length(),
+							path.length() - ".java".length());
+					classes.add(name.replace('/', '.'));
+				}
+			} catch (IOException e) {
+				logger.debug("Could not read {}: {}", source, e.getMessage());
+			}
+		}
+		return classes;
+	}
+
+	private static void collectSources(File dir, List<File> sources) {
+		File[] files = dir.listFiles();
+		if (null == files) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				collectSources(file, sources);
+			} else if (file.getName().endsWith(".java")) {
+				sources.add(file);
+			}
+		}
+	}
+
+	/**
+	 * Runs a git command in the working directory and returns its output
+	 * lines. Anything git writes to stderr, such as warnings, is kept out of
+	 * the output.
+	 */
+	private static List<String> git(String... args) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add("git");
+		for (String arg : args) {
+			command.add(arg);
+		}
+		File errors = File.createTempFile("git-", ".err");
+		try {
+			Process process = new ProcessBuilder(command).redirectError(errors).start();
+			List<String> lines = new ArrayList<String>();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+			try {
+				String line;
+				while (null != (line = reader.readLine())) {
+					if (!line.trim().isEmpty()) {
+						lines.add(line.trim());
+					}
+				}
+			} finally {
+				reader.close();
+			}
+			if (!process.waitFor(GIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				process.destroy();
+				throw new IOException("git " + args[0] + " timed out");
+			}
+			String stderr = read(errors).trim();
+			if (0 != process.exitValue()) {
+				throw new IOException("git " + args[0] + " failed: " + stderr);
+			}
+			if (!stderr.isEmpty()) {
+				logger.debug("git {}: {}", args[0], stderr);
+			}
+			return lines;
+		} finally {
+			errors.delete();
+		}
+	}
+
+	private static String read(File file) throws IOException {
+		StringBuilder text = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while (null != (line = reader.readLine())) {
+				text.append(line).append('\n');
+			}
+		} finally {
+			reader.close();
+		}
+		return text.toString();
+	}
+}
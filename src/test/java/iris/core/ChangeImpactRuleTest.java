@@ -0,0 +1,49 @@
+package iris.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+/**
+ * @author vickery_b
+ *
+ *         Checks that the change impact rule finds the test class it was
+ *         applied to, with and without a browser matrix.
+ *
+ */
+public class ChangeImpactRuleTest {
+
+	/** A test class to describe; its test is never run. */
+	public static class Sample extends IrisAbstractSelenium {
+		@Test
+		public void opens() {
+		}
+	}
+
+	@After
+	public void clearMatrix() {
+		System.clearProperty("browserMatrix");
+	}
+
+	@Test
+	public void findsClassOfEachBrowserInMatrix() throws Exception {
+		System.setProperty("browserMatrix", "CHROME_REMOTE,FIREFOX_REMOTE");
+		Description matrix = new BrowserMatrix(Sample.class).getDescription();
+
+		assertEquals(2, matrix.getChildren().size());
+		for (Description browser : matrix.getChildren()) {
+			assertEquals(Sample.class.getName(), ChangeImpactRule.testClassOf(browser));
+		}
+	}
+
+	@Test
+	public void findsClassWithoutMatrix() throws Exception {
+		assertEquals(Sample.class.getName(),
+				ChangeImpactRule.testClassOf(new BrowserMatrix(Sample.class).getDescription()));
+		assertEquals(Sample.class.getName(),
+				ChangeImpactRule.testClassOf(new BlockJUnit4ClassRunner(Sample.class).getDescription()));
+	}
+}
@@ -0,0 +1,83 @@
+package iris.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+
+/**
+ * @author vickery_b
+ *
+ *         Creates the executors which send the WebDriver commands of a
+ *         session. Normally commands go over HTTP to the driver service or
+ *         grid; -Dtrace=true traces them (see {@link TracingCommandExecutor}),
+ *         -Dwebdriver.record=&lt;dir&gt; records them (see
+ *         {@link RecordingCommandExecutor}) and -Dwebdriver.replay=&lt;dir&gt;
+ *         serves them from an earlier recording without a browser (see
+ *         {@link ReplayCommandExecutor}).
+ *
+ *         A recording is named after the test which opened the session and
+ *         the number of sessions the test had opened before it, so a replay
+ *         finds the recording of the same session as long as the test opens
+ *         its sessions in the same order.
+ *
+ */
+public final class CommandExecutors {
+
+	/** Sessions opened so far by each test. */
+	private static final ConcurrentMap<String, AtomicInteger> sessions = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private CommandExecutors() {
+	}
+
+	/**
+	 * Checks whether sessions are replayed from recordings.
+	 *
+	 * @return True if -Dwebdriver.replay was given.
+	 */
+	public static boolean isReplaying() {
+		return null != System.getProperty("webdriver.replay");
+	}
+
+	/**
+	 * Get the executor for a new session of the current test.
+	 *
+	 * @param url
+	 *            The address of the driver service or grid; ignored when
+	 *            replaying.
+	 * @return The executor.
+	 * @throws IOException
+	 *             If the recording to replay cannot be read.
+	 */
+	public static CommandExecutor forUrl(URL url) throws IOException {
+		CommandExecutor executor;
+		if (isReplaying()) {
+			executor = new ReplayCommandExecutor(recording(System.getProperty("webdriver.replay")));
+		} else {
+			executor = new HttpCommandExecutor(url);
+			if (null != System.getProperty("webdriver.record")) {
+				executor = new RecordingCommandExecutor(executor, recording(System.getProperty("webdriver.record")));
+			}
+		}
+		return CommandTrace.isEnabled() ? new TracingCommandExecutor(executor) : executor;
+	}
+
+	/**
+	 * Get the recording file of the next session of the current test.
+	 */
+	private static File recording(String dir) {
+		String test = EventStream.getCurrentTest();
+		String name = (null == test ? "session" : test).replaceAll("[^A-Za-z0-9._-]", "_");
+		AtomicInteger count = sessions.get(name);
+		if (null == count) {
+			sessions.putIfAbsent(name, new AtomicInteger());
+			count = sessions.get(name);
+		}
+		return new File(dir, name + "-" + count.getAndIncrement() + ".jsonl.gz");
+	}
+}
@@ -0,0 +1,284 @@
+package iris.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Records a span for every WebDriver command sent by a
+ *         {@link TracingCommandExecutor}, and for every step of the
+ *         {@link WaitEngine}, when -Dtrace=true. A command span carries the
+ *         command, the element and locator it was for, its outcome and the
+ *         step and test it was sent from; a step span carries the number of
+ *         commands sent during it. Commands are sent on the thread of the
+ *         step, so in a trace viewer each command sits under its step.
+ *
+ *         When the JVM exits the spans are written to
+ *         target/failsafe-reports/trace.json in the Trace Event format read
+ *         by chrome://tracing and Perfetto, and the steps which send the most
+ *         commands on average are logged. At most 500000 spans are kept.
+ *
+ */
+public final class CommandTrace {
+
+	private static final Logger logger = LoggerFactory.getLogger(CommandTrace.class);
+
+	/** Most spans kept. */
+	private static final int CAPACITY = 500000;
+
+	/** Steps listed in the summary of chatty steps. */
+	private static final int CHATTIEST = 10;
+
+	/** Origin of the trace's timestamps, as a System.nanoTime() value. */
+	private static final long ORIGIN = System.nanoTime();
+
+	/** One recorded span. */
+	private static final class Span {
+		private final String name;
+		private final String category;
+		private final long startMicros;
+		private final long durationMicros;
+		private final long thread;
+		private final Map<String, String> args;
+
+		private Span(String name, String category, long startNanos, long durationNanos, Map<String, String> args) {
+			this.name = name;
+			this.category = category;
+			this.startMicros = TimeUnit.NANOSECONDS.toMicros(startNanos - ORIGIN);
+			this.durationMicros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+			this.thread = Thread.currentThread().getId();
+			this.args = args;
+		}
+	}
+
+	/** The step running on a thread. */
+	private static final class Step {
+		private final String name;
+		private final long started = System.nanoTime();
+		private int commands;
+
+		private Step(String name) {
+			this.name = name;
+		}
+	}
+
+	/** The recorded spans. */
+	private static final Queue<Span> spans = new ConcurrentLinkedQueue<Span>();
+
+	/** Number of spans recorded. */
+	private static final AtomicInteger recorded = new AtomicInteger();
+
+	/** Names of the threads which recorded spans. */
+	private static final ConcurrentMap<Long, String> threads = new ConcurrentHashMap<Long, String>();
+
+	/** The step running on each thread. */
+	private static final ThreadLocal<Step> currentStep = new ThreadLocal<Step>();
+
+	static {
+		if (isEnabled()) {
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					write(new File("target/failsafe-reports/trace.json"));
+				}
+			}, "command-trace-writer"));
+		}
+	}
+
+	private CommandTrace() {
+	}
+
+	/**
+	 * Checks whether commands are traced.
+	 *
+	 * @return True if -Dtrace=true was given.
+	 */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean("trace");
+	}
+
+	/**
+	 * Starts a step span on the current thread.
+	 *
+	 * @param name
+	 *            The step.
+	 */
+	static void beginStep(String name) {
+		if (isEnabled()) {
+			currentStep.set(new Step(name));
+		}
+	}
+
+	/**
+	 * Ends the step span started on the current thread.
+	 *
+	 * @param outcome
+	 *            How the step ended, e.g. "passed".
+	 */
+	static void endStep(String outcome) {
+		Step step = currentStep.get();
+		if (null == step) {
+			return;
+		}
+		currentStep.remove();
+		Map<String, String> args = new HashMap<String, String>();
+		args.put("commands", String.valueOf(step.commands));
+		args.put("outcome", outcome);
+		record(new Span(step.name, "step", step.started, System.nanoTime() - step.started, args));
+	}
+
+	/**
+	 * Records a command span on the current thread.
+	 *
+	 * @param command
+	 *            The command name, e.g. findElement.
+	 * @param startNanos
+	 *            When the command was sent, as a System.nanoTime() value.
+	 * @param args
+	 *            Details of the command, e.g. the element and outcome.
+	 */
+	static void command(String command, long startNanos, Map<String, String> args) {
+		Step step = currentStep.get();
+		if (null != step) {
+			step.commands++;
+			args.put("step", step.name);
+		}
+		String test = EventStream.getCurrentTest();
+		if (null != test) {
+			args.put("test", test);
+		}
+		record(new Span(command, "command", startNanos, System.nanoTime() - startNanos, args));
+	}
+
+	private static void record(Span span) {
+		if (recorded.incrementAndGet() > CAPACITY) {
+			return;
+		}
+		threads.putIfAbsent(span.thread, Thread.currentThread().getName());
+		spans.add(span);
+	}
+
+	/**
+	 * Writes the spans recorded so far as a Trace Event file and logs the
+	 * chattiest steps.
+	 *
+	 * @param file
+	 *            The trace file.
+	 */
+	static void write(File file) {
+		if (spans.isEmpty()) {
+			return;
+		}
+		if (recorded.get() > CAPACITY) {
+			logger.warn("Trace kept the first {} of {} spans", CAPACITY, recorded.get());
+		}
+		Writer writer = null;
+		try {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+			boolean first = true;
+			for (Map.Entry<Long, String> thread : threads.entrySet()) {
+				writer.write(first ? "\n" : ",\n");
+				first = false;
+				writer.write("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":" + thread.getKey()
+						+ ",\"args\":{\"name\":" + json(thread.getValue()) + "}}");
+			}
+			for (Span span : spans) {
+				StringBuilder event = new StringBuilder(first ? "\n" : ",\n");
+				first = false;
+				event.append("{\"ph\":\"X\",\"name\":").append(json(span.name)).append(",\"cat\":")
+						.append(json(span.category)).append(",\"pid\":1,\"tid\":").append(span.thread)
+						.append(",\"ts\":").append(span.startMicros).append(",\"dur\":").append(span.durationMicros)
+						.append(",\"args\":{");
+				boolean firstArg = true;
+				for (Map.Entry<String, String> arg : span.args.entrySet()) {
+					event.append(firstArg ? "" : ",").append(json(arg.getKey())).append(':')
+							.append(json(arg.getValue()));
+					firstArg = false;
+				}
+				writer.write(event.append("}}").toString());
+			}
+			writer.write("\n]}\n");
+			logger.info("Wrote {} span(s) to {}", Math.min(recorded.get(), CAPACITY), file);
+		} catch (IOException e) {
+			logger.error("Failed to write trace\n" + e.getMessage());
+		} finally {
+			if (null != writer) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					logger.error("Failed to close trace\n" + e.getMessage());
+				}
+			}
+		}
+		logChattiest();
+	}
+
+	/**
+	 * Logs the steps which send the most commands on average.
+	 */
+	private static void logChattiest() {
+		final Map<String, int[]> steps = new HashMap<String, int[]>();
+		for (Span span : spans) {
+			if ("step".equals(span.category)) {
+				int[] counts = steps.get(span.name);
+				if (null == counts) {
+					counts = new int[2];
+					steps.put(span.name, counts);
+				}
+				counts[0]++;
+				counts[1] += Integer.parseInt(span.args.get("commands"));
+			}
+		}
+		List<String> names = new ArrayList<String>(steps.keySet());
+		Collections.sort(names, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return Double.compare(average(steps.get(b)), average(steps.get(a)));
+			}
+		});
+		for (String name : names.subList(0, Math.min(CHATTIEST, names.size()))) {
+			int[] counts = steps.get(name);
+			logger.info("{}: {} command(s) per step over {} step(s)", name,
+					String.format(Locale.ROOT, "%.1f", average(counts)), counts[0]);
+		}
+	}
+
+	private static double average(int[] counts) {
+		return (double) counts[1] / counts[0];
+	}
+
+	private static String json(String value) {
+		StringBuilder json = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ('"' == c || '\\' == c) {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		return json.append('"').toString();
+	}
+}
@@ -0,0 +1,174 @@
+package iris.core;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebElement;
+
+/**
+ * @author vickery_b
+ *
+ *         A page object backed by the data file of a test class. Values which
+ *         start with / or ( are XPath locators, anything else is plain data.
+ *         Subclasses with a typed method per key are generated from the data
+ *         files by {@link PageObjectGenerator}.
+ *
+ *         Elements are found lazily, on first use, and the handle is kept for
+ *         the current state of the page, so consecutive steps on the same
+ *         element do not find it again. A page obtained from
+ *         {@link IrisAbstractSelenium#page} finds each element with
+ *         {@link IrisAbstractSelenium#waitForEnabledIn}, so first use waits
+ *         for the element to be loaded, displayed and not disabled, as
+ *         waitForThenClick does; a page created directly finds it with a
+ *         single findElement, so its elements must already be usable.
+ *         Handles are {@link RelocatableElement}s: if the page re-renders an
+ *         element it is found again in one round trip. {@link #invalidate()}
+ *         drops every handle, and is called by {@link IrisAbstractSelenium}
+ *         whenever it navigates.
+ *
+ */
+public class DataPage {
+
+	/** Where elements are found. */
+	private final SearchContext searchContext;
+
+	/** The data file, as loaded. */
+	private final Properties data;
+
+	/** The test whose wait helpers find the elements, or null. */
+	private volatile IrisAbstractSelenium selenium;
+
+	/** Handles found in the current page state, by key. */
+	private final ConcurrentMap<String, WebElement> elements = new ConcurrentHashMap<String, WebElement>();
+
+	/**
+	 * Creates a page from the data file of a test class.
+	 *
+	 * @param searchContext
+	 *            Where elements are found, normally the web driver.
+	 * @param testClass
+	 *            The test class whose data file describes the page.
+	 * @throws IOException
+	 *             If the data file cannot be read.
+	 */
+	public DataPage(SearchContext searchContext, Class<?> testClass) throws IOException {
+		this(searchContext, IrisSeleniumBase.loadData(testClass));
+	}
+
+	/**
+	 * Creates a page from loaded data.
+	 *
+	 * @param searchContext
+	 *            Where elements are found, normally the web driver.
+	 * @param data
+	 *            The data.
+	 */
+	public DataPage(SearchContext searchContext, Properties data) {
+		this.searchContext = searchContext;
+		this.data = data;
+	}
+
+	/**
+	 * Get the search context elements are found in.
+	 *
+	 * @return The search context.
+	 */
+	public SearchContext getSearchContext() {
+		return searchContext;
+	}
+
+	/**
+	 * Finds elements with the wait helpers of a test, so that first use of an
+	 * element waits for it to be enabled.
+	 *
+	 * @param selenium
+	 *            The test.
+	 */
+	void waitWith(IrisAbstractSelenium selenium) {
+		this.selenium = selenium;
+	}
+
+	/**
+	 * Get a data value.
+	 *
+	 * @param key
+	 *            The key in the data file.
+	 * @return The value.
+	 * @throws IllegalArgumentException
+	 *             If the key is not in the data file.
+	 */
+	public String text(String key) {
+		String value = data.getProperty(key);
+		if (null == value) {
+			throw new IllegalArgumentException("Key not found in data: " + key);
+		}
+		return value;
+	}
+
+	/**
+	 * Get the locator of an element, e.g. for {@link IrisFlow} steps.
+	 *
+	 * @param key
+	 *            The key of an XPath in the data file.
+	 * @return The locator.
+	 * @throws IllegalArgumentException
+	 *             If the key is not in the data file or is not an XPath.
+	 */
+	public By by(String key) {
+		String value = text(key).trim();
+		if (!isLocator(value)) {
+			throw new IllegalArgumentException("Data is not an XPath: " + key);
+		}
+		return By.xpath(value);
+	}
+
+	/**
+	 * Get a handle to an element, which is found on first use and kept until
+	 * the page is invalidated. On a page from {@link IrisAbstractSelenium#page}
+	 * first use waits for the element to be enabled; otherwise the element
+	 * must already be usable when the handle is first used.
+	 *
+	 * @param key
+	 *            The key of an XPath in the data file.
+	 * @return The handle.
+	 * @throws IllegalArgumentException
+	 *             If the key is not in the data file or is not an XPath.
+	 * @throws TimeoutException
+	 *             If the element is waited for and is not loaded in time.
+	 */
+	public WebElement element(String key) {
+		WebElement element = elements.get(key);
+		if (null == element) {
+			IrisAbstractSelenium waiting = selenium;
+			elements.putIfAbsent(key, null == waiting ? RelocatableElement.lazy(searchContext, by(key))
+					: waiting.waitForEnabledIn(searchContext, by(key)));
+			element = elements.get(key);
+		}
+		return element;
+	}
+
+	/**
+	 * Drops every handle, e.g. after navigating, so that elements are found
+	 * afresh rather than first failing as stale.
+	 */
+	public void invalidate() {
+		elements.clear();
+	}
+
+	/**
+	 * Checks whether a data value is an XPath locator.
+	 *
+	 * @param value
+	 *            The value.
+	 * @return True if the value starts with / or (.
+	 */
+	public static boolean isLocator(String value) {
+		String trimmed = value.trim();
+		return trimmed.startsWith("/") || trimmed.startsWith("(");
+	}
+}
@@ -0,0 +1,99 @@
+package iris.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * @author vickery_b
+ *
+ *         Checks that a page object finds each element once, waiting for it to
+ *         be enabled on first use, and finds it again only after the page is
+ *         invalidated.
+ *
+ */
+public class DataPageTest {
+
+	/** A test with no test methods of its own, to get pages from. */
+	static class Helpers extends IrisAbstractSelenium {
+	}
+
+	/** A page with one element. */
+	public static class SamplePage extends DataPage {
+		public SamplePage(SearchContext searchContext) {
+			super(searchContext, data());
+		}
+
+		private static Properties data() {
+			Properties data = new Properties();
+			data.setProperty("Button", "//*[@id=\"button\"]");
+			return data;
+		}
+	}
+
+	private FakeRemoteEnd remote;
+
+	private RemoteWebDriver driver;
+
+	private Helpers helpers;
+
+	@Before
+	public void bind() {
+		remote = new FakeRemoteEnd(0);
+		driver = new RemoteWebDriver(remote, new DesiredCapabilities());
+		helpers = new Helpers();
+		helpers.bindSession(driver);
+	}
+
+	@After
+	public void unbind() {
+		helpers.bindSession(null);
+		driver.quit();
+	}
+
+	@Test
+	public void consecutiveUsesDoNotFindAgain() {
+		SamplePage page = helpers.page(SamplePage.class);
+		page.element("Button").click();
+		page.element("Button").click();
+		helpers.page(SamplePage.class).element("Button").click();
+
+		assertEquals(1, remote.count(DriverCommand.FIND_ELEMENT));
+		assertEquals(3, remote.count(DriverCommand.CLICK_ELEMENT));
+	}
+
+	@Test
+	public void firstUseWaitsForElement() {
+		remote.fail(DriverCommand.FIND_ELEMENT, 1);
+		helpers.page(SamplePage.class).element("Button").click();
+
+		assertEquals(2, remote.count(DriverCommand.FIND_ELEMENT));
+	}
+
+	@Test
+	public void firstUseWaitsUntilEnabled() {
+		remote.disabled(1);
+		helpers.page(SamplePage.class).element("Button").click();
+
+		assertEquals(2, remote.count(DriverCommand.IS_ELEMENT_ENABLED));
+		assertEquals(1, remote.count(DriverCommand.CLICK_ELEMENT));
+	}
+
+	@Test
+	public void invalidatedPageFindsAgain() {
+		SamplePage page = helpers.page(SamplePage.class);
+		page.element("Button").click();
+		page.invalidate();
+		page.element("Button").click();
+
+		assertEquals(2, remote.count(DriverCommand.FIND_ELEMENT));
+	}
+}
@@ -0,0 +1,239 @@
+package iris.core;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author vickery_b
+ *
+ *         Streams rows of test data from a file, one row at a time, so a file
+ *         with thousands of rows is never held in memory. Rows may be taken by
+ *         several threads at once.
+ *
+ *         Files ending in .csv have a header line naming the columns followed
+ *         by one row per line; values containing commas are enclosed in double
+ *         quotes, with "" for a quote inside a value. Any other file is read
+ *         as blocks of Properties-style key=value lines, one row per block,
+ *         with blocks separated by blank lines and # starting a comment.
+ *
+ */
+public class DataRows implements Closeable {
+
+	/** One row of data. */
+	public static final class Row {
+		private final int index;
+		private final Map<String, String> values;
+
+		private Row(int index, Map<String, String> values) {
+			this.index = index;
+			this.values = values;
+		}
+
+		/**
+		 * @return The position of the row in the file, starting at 1.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Get one value of the row.
+		 *
+		 * @param key
+		 *            The column or key name.
+		 * @return The value.
+		 * @throws IllegalArgumentException
+		 *             If the row has no such key.
+		 */
+		public String get(String key) {
+			if (!values.containsKey(key)) {
+				throw new IllegalArgumentException("Key not found in row " + index + ": " + key);
+			}
+			return values.get(key);
+		}
+
+		/**
+		 * @return All the values of the row, by column or key name.
+		 */
+		public Map<String, String> getValues() {
+			return values;
+		}
+
+		@Override
+		public String toString() {
+			return "row " + index + " " + values;
+		}
+	}
+
+	/** Name of the file, for messages. */
+	private final String name;
+
+	/** The open file. */
+	private final BufferedReader reader;
+
+	/** Whether the file is CSV rather than Properties blocks. */
+	private final boolean csv;
+
+	/** CSV column names. */
+	private List<String> header;
+
+	/** Guards the reader, held while a row is read. */
+	private final Lock lock = new ReentrantLock();
+
+	/** Number of rows read so far. */
+	private int count;
+
+	/**
+	 * Opens a data file kept alongside the test class's own data file, i.e.
+	 * in &lt;package&gt;.data on the classpath.
+	 *
+	 * @param testClass
+	 *            The test class.
+	 * @param fileName
+	 *            The name of the file, e.g. DWITHINFilters.csv.
+	 * @return The open rows.
+	 * @throws IOException
+	 *             If the file cannot be found or read.
+	 */
+	public static DataRows open(Class<?> testClass, String fileName) throws IOException {
+		String path = "/" + testClass.getPackage().getName().replace(".", "/") + "/data/" + fileName;
+		URL url = testClass.getResource(path);
+		if (null == url) {
+			throw new FileNotFoundException("data file '" + path + "' not found in the classpath");
+		}
+		return new DataRows(path, new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8")),
+				fileName.toLowerCase().endsWith(".csv"));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name
+	 *            Name of the data, for messages.
+	 * @param reader
+	 *            The data.
+	 * @param csv
+	 *            True if the data is CSV, false for Properties blocks.
+	 */
+	public DataRows(String name, BufferedReader reader, boolean csv) {
+		this.name = name;
+		this.reader = reader;
+		this.csv = csv;
+	}
+
+	/**
+	 * Reads the next row.
+	 *
+	 * @return The row, or null when there are no more rows.
+	 * @throws IOException
+	 *             If the file cannot be read or a row is malformed.
+	 */
+	public Row next() throws IOException {
+		lock.lock();
+		try {
+			Map<String, String> values = csv ? nextCsv() : nextBlock();
+			return null == values ? null : new Row(++count, values);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private Map<String, String> nextCsv() throws IOException {
+		if (null == header) {
+			String line = reader.readLine();
+			if (null == line) {
+				return null;
+			}
+			header = split(line);
+		}
+
+		String line;
+		do {
+			line = reader.readLine();
+			if (null == line) {
+				return null;
+			}
+		} while (line.trim().isEmpty());
+
+		List<String> cells = split(line);
+		if (cells.size() != header.size()) {
+			throw new IOException(name + " row " + (count + 1) + " has " + cells.size() + " values, expected "
+					+ header.size());
+		}
+
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		for (int i = 0; i < cells.size(); i++) {
+			values.put(header.get(i), cells.get(i));
+		}
+		return values;
+	}
+
+	private Map<String, String> nextBlock() throws IOException {
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		String line;
+		while (null != (line = reader.readLine())) {
+			String trimmed = line.trim();
+			if (trimmed.isEmpty()) {
+				if (!values.isEmpty()) {
+					return values;
+				}
+				continue;
+			}
+			if (trimmed.startsWith("#")) {
+				continue;
+			}
+			int equals = trimmed.indexOf('=');
+			if (equals < 0) {
+				throw new IOException(name + " row " + (count + 1) + " has a line without '=': " + trimmed);
+			}
+			values.put(trimmed.substring(0, equals).trim(), trimmed.substring(equals + 1).trim());
+		}
+		return values.isEmpty() ? null : values;
+	}
+
+	/**
+	 * Splits one CSV line into its values.
+	 */
+	private static List<String> split(String line) {
+		List<String> cells = new ArrayList<String>();
+		StringBuilder cell = new StringBuilder();
+		boolean quoted = false;
+
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					cell.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					cell.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				cells.add(cell.toString().trim());
+				cell.setLength(0);
+			} else {
+				cell.append(c);
+			}
+		}
+		cells.add(cell.toString().trim());
+		return cells;
+	}
+}
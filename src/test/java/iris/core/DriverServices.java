@@ -0,0 +1,247 @@
+package iris.core;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeDriverService;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         The chromedriver service shared by every local Chrome session in
+ *         the JVM. The service is started when the first session is opened and
+ *         counts the sessions using it; it stays running when the count drops
+ *         to zero, so the next test does not pay for a new chromedriver
+ *         process, and is stopped by a shutdown hook when the JVM exits.
+ *
+ *         Before each session is opened the service is health checked: its
+ *         process must be running and its /status endpoint should answer
+ *         within a second. The endpoint is called without holding the lock, so
+ *         a slow answer does not hold up other sessions. The service is
+ *         stopped and a new one started if its process has died or if it has
+ *         not answered three checks in a row, as a busy chromedriver can be
+ *         slow to answer once; sessions still open on the old service are
+ *         lost.
+ *
+ *         The chromedriver executable is given by -DchromeDriver, default
+ *         C:\Selenium\chromedriver.exe.
+ *
+ */
+public final class DriverServices {
+
+	private static final Logger logger = LoggerFactory.getLogger(DriverServices.class);
+
+	/** Milliseconds allowed for the health check to answer. */
+	private static final int HEALTH_TIMEOUT_MILLIS = 1000;
+
+	/** Health checks in a row the service may fail before it is restarted. */
+	private static final int MAX_FAILED_CHECKS = 3;
+
+	/** Guards the service and the session count. */
+	private static final Lock lock = new ReentrantLock();
+
+	/** The running service, or null before the first session. */
+	private static ChromeDriverService service;
+
+	/** Sessions open on the service. */
+	private static int sessions;
+
+	/** Services started, including restarts. */
+	private static int starts;
+
+	/** Health checks the service has failed in a row. */
+	private static int failedChecks;
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				shutdown();
+			}
+		}, "driver-services-shutdown"));
+	}
+
+	private DriverServices() {
+	}
+
+	/**
+	 * Opens a Chrome session on the shared service, starting or restarting
+	 * the service if needed. The session is counted until it is quit.
+	 *
+	 * @param capabilities
+	 *            The capabilities of the session.
+	 * @return The new session.
+	 * @throws Exception
+	 *             If the service cannot be started or the session cannot be
+	 *             created.
+	 */
+	public static WebDriver newChromeSession(Capabilities capabilities) throws Exception {
+		final ChromeDriverService owner = acquire();
+		try {
+			return new RemoteWebDriver(CommandExecutors.forUrl(owner.getUrl()), capabilities) {
+				private final AtomicBoolean released = new AtomicBoolean();
+
+				@Override
+				public void quit() {
+					try {
+						super.quit();
+					} finally {
+						if (released.compareAndSet(false, true)) {
+							release(owner);
+						}
+					}
+				}
+			};
+		} catch (RuntimeException e) {
+			release(owner);
+			throw e;
+		}
+	}
+
+	/**
+	 * Get a healthy service and count a session on it.
+	 */
+	private static ChromeDriverService acquire() throws Exception {
+		ChromeDriverService checked = current();
+		boolean answered = null == checked || !checked.isRunning() || answers(checked);
+		lock.lock();
+		try {
+			// Unless another session restarted the service during the check
+			if (null != service && service == checked) {
+				if (!service.isRunning()) {
+					logger.warn("chromedriver process at {} has died, restarting it ({} session(s) lost)",
+							service.getUrl(), sessions);
+					stopService();
+				} else if (answered) {
+					failedChecks = 0;
+				} else if (++failedChecks < MAX_FAILED_CHECKS) {
+					logger.info("chromedriver service at {} did not answer health check {} of {}", service.getUrl(),
+							failedChecks, MAX_FAILED_CHECKS);
+				} else {
+					logger.warn("chromedriver service at {} failed {} health checks in a row, restarting it "
+							+ "({} session(s) lost)", service.getUrl(), failedChecks, sessions);
+					stopService();
+				}
+			}
+			if (null == service) {
+				File executable = new File(System.getProperty("chromeDriver", "C:\\Selenium\\chromedriver.exe"));
+				service = new ChromeDriverService.Builder().usingDriverExecutable(executable).usingAnyFreePort()
+						.build();
+				service.start();
+				starts++;
+				logger.info("Started chromedriver service at {}", service.getUrl());
+			}
+			sessions++;
+			return service;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the running service, or null.
+	 */
+	private static ChromeDriverService current() {
+		lock.lock();
+		try {
+			return service;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the service, which the caller holds the lock of, and forgets its
+	 * sessions.
+	 */
+	private static void stopService() {
+		stopQuietly(service);
+		service = null;
+		sessions = 0;
+		failedChecks = 0;
+	}
+
+	/**
+	 * Stops counting a session, unless the service it was opened on has since
+	 * been restarted.
+	 */
+	private static void release(ChromeDriverService owner) {
+		lock.lock();
+		try {
+			if (owner == service && sessions > 0) {
+				sessions--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Checks that the service answers its /status endpoint in time.
+	 */
+	private static boolean answers(ChromeDriverService candidate) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(candidate.getUrl(), "/status").openConnection();
+			connection.setConnectTimeout(HEALTH_TIMEOUT_MILLIS);
+			connection.setReadTimeout(HEALTH_TIMEOUT_MILLIS);
+			return 200 == connection.getResponseCode();
+		} catch (Exception e) {
+			logger.debug("chromedriver health check failed: {}", e.getMessage());
+			return false;
+		} finally {
+			if (null != connection) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Get the number of sessions open on the service.
+	 *
+	 * @return The number of sessions.
+	 */
+	public static int getSessions() {
+		lock.lock();
+		try {
+			return sessions;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the service, e.g. when the JVM exits.
+	 */
+	static void shutdown() {
+		lock.lock();
+		try {
+			if (null == service) {
+				return;
+			}
+			if (sessions > 0) {
+				logger.warn("Stopping chromedriver service with {} session(s) still open", sessions);
+			}
+			stopService();
+			logger.info("Stopped chromedriver service, started {} time(s) in this run", starts);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static void stopQuietly(ChromeDriverService stopping) {
+		try {
+			stopping.stop();
+		} catch (Exception e) {
+			logger.error("Failed to stop chromedriver service\n" + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package iris.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Machine-readable stream of test events (test start and end, wait
+ *         steps, flows, failures) written as JSON Lines. The test thread only
+ *         creates a small event object and adds it to a lock-free queue; a
+ *         daemon appender thread turns events into JSON and writes them, so
+ *         the cost to the test is a few hundred nanoseconds whatever the log
+ *         level.
+ *
+ *         Events go to the file given by the -Devents VM arg, default
+ *         target/failsafe-reports/events.jsonl; -Devents=false turns the
+ *         stream off. At most 100000 events are buffered; beyond that events
+ *         are dropped and counted rather than blocking the test.
+ *
+ */
+public final class EventStream {
+
+	private static final Logger logger = LoggerFactory.getLogger(EventStream.class);
+
+	/** Most events held in the queue before new ones are dropped. */
+	private static final int CAPACITY = 100000;
+
+	/** Events waiting to be written. */
+	private static final Queue<Event> queue = new ConcurrentLinkedQueue<Event>();
+
+	/** Number of events in the queue. */
+	private static final AtomicInteger queued = new AtomicInteger();
+
+	/** Number of events dropped because the queue was full. */
+	private static final AtomicInteger dropped = new AtomicInteger();
+
+	/** The test running on each thread. */
+	private static final ThreadLocal<String> currentTest = new ThreadLocal<String>();
+
+	/** File the events are written to, or null if the stream is off. */
+	private static final File file = outputFile();
+
+	/** The appender thread, or null if the stream is off. */
+	private static final Thread appender = startAppender();
+
+	/** One event. Turned into JSON on the appender thread. */
+	private static final class Event {
+		private final long time = System.currentTimeMillis();
+		private final String thread = Thread.currentThread().getName();
+		private final String test = currentTest.get();
+		private final String type;
+		private final String name;
+		private final long durationMillis;
+		private final String outcome;
+		private final String detail;
+
+		private Event(String type, String name, long durationMillis, String outcome, String detail) {
+			this.type = type;
+			this.name = name;
+			this.durationMillis = durationMillis;
+			this.outcome = outcome;
+			this.detail = detail;
+		}
+
+		private String toJson() {
+			StringBuilder json = new StringBuilder(128);
+			json.append("{\"time\":").append(time);
+			field(json, "type", type);
+			field(json, "test", test);
+			field(json, "thread", thread);
+			field(json, "name", name);
+			if (durationMillis >= 0) {
+				json.append(",\"durationMs\":").append(durationMillis);
+			}
+			field(json, "outcome", outcome);
+			field(json, "detail", detail);
+			return json.append('}').toString();
+		}
+	}
+
+	private EventStream() {
+	}
+
+	/**
+	 * Checks whether events are being recorded.
+	 *
+	 * @return True if the stream is on.
+	 */
+	public static boolean isEnabled() {
+		return null != file;
+	}
+
+	/**
+	 * Sets the test running on the current thread, which is recorded with
+	 * every event the thread emits.
+	 *
+	 * @param test
+	 *            The test name, or null when no test is running.
+	 */
+	public static void setCurrentTest(String test) {
+		if (null == test) {
+			currentTest.remove();
+		} else {
+			currentTest.set(test);
+		}
+	}
+
+	/**
+	 * Get the test running on the current thread.
+	 *
+	 * @return The test name, or null when no test is running.
+	 */
+	public static String getCurrentTest() {
+		return currentTest.get();
+	}
+
+	/**
+	 * Records an event.
+	 *
+	 * @param type
+	 *            The kind of event, e.g. test_start, step, failure.
+	 * @param name
+	 *            What the event is about, e.g. the step description.
+	 * @param durationMillis
+	 *            How long it took, or -1 if not timed.
+	 * @param outcome
+	 *            How it ended, or null.
+	 * @param detail
+	 *            Anything else worth recording, or null.
+	 */
+	public static void emit(String type, String name, long durationMillis, String outcome, String detail) {
+		if (null == file) {
+			return;
+		}
+		if (queued.incrementAndGet() > CAPACITY) {
+			queued.decrementAndGet();
+			dropped.incrementAndGet();
+			return;
+		}
+		queue.offer(new Event(type, name, durationMillis, outcome, detail));
+	}
+
+	/**
+	 * Records an untimed event.
+	 *
+	 * @param type
+	 *            The kind of event.
+	 * @param name
+	 *            What the event is about.
+	 */
+	public static void emit(String type, String name) {
+		emit(type, name, -1, null, null);
+	}
+
+	private static File outputFile() {
+		String path = System.getProperty("events", "target/failsafe-reports/events.jsonl");
+		return "false".equalsIgnoreCase(path) ? null : new File(path);
+	}
+
+	private static Thread startAppender() {
+		if (null == file) {
+			return null;
+		}
+
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				while (true) {
+					drain();
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+				}
+			}
+		}, "event-stream-appender");
+		thread.setDaemon(true);
+		thread.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "event-stream-flush"));
+		return thread;
+	}
+
+	/**
+	 * Writes every queued event. Only one thread drains at a time.
+	 */
+	private static synchronized void drain() {
+		if (queue.isEmpty()) {
+			return;
+		}
+
+		Writer writer = null;
+		try {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+			Event event;
+			while (null != (event = queue.poll())) {
+				queued.decrementAndGet();
+				writer.write(event.toJson());
+				writer.write('\n');
+			}
+			int lost = dropped.getAndSet(0);
+			if (lost > 0) {
+				writer.write(new Event("dropped", null, -1, null, lost + " event(s) dropped").toJson());
+				writer.write('\n');
+			}
+		} catch (IOException e) {
+			logger.error("Failed to write events\n" + e.getMessage());
+		} finally {
+			if (null != writer) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					logger.error("Failed to close event file\n" + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private static void field(StringBuilder json, String name, String value) {
+		if (null == value) {
+			return;
+		}
+		json.append(",\"").append(name).append("\":\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+		}
+		json.append('"');
+	}
+}
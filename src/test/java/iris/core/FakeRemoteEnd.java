@@ -0,0 +1,202 @@
+package iris.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.ErrorCodes;
+import org.openqa.selenium.remote.Response;
+
+/**
+ * @author vickery_b
+ *
+ *         A remote end for the harness's own tests, which answers WebDriver
+ *         commands without a browser. Every element lookup finds the same
+ *         element, which is enabled and displayed, and every script succeeds;
+ *         a script given a list of locators finds that element for each, and
+ *         an asynchronous script calls back with the element if it waits with
+ *         a MutationObserver, and with null otherwise. Each command can be
+ *         made to take a while, so the wall clock moves between commands as it
+ *         does against a real browser, the round trips of a command can be
+ *         made to fail, and its answers can say that the element has gone
+ *         stale or is disabled.
+ *
+ */
+class FakeRemoteEnd implements CommandExecutor {
+
+	/** The id of the element every lookup finds. */
+	static final String ELEMENT = "element-1";
+
+	/** Milliseconds each command takes. */
+	private final long delayMillis;
+
+	/** Commands sent, by name, in order. */
+	private final List<String> sent = new ArrayList<String>();
+
+	/** Number of upcoming round trips to fail, by command name. */
+	private final Map<String, Integer> failures = new HashMap<String, Integer>();
+
+	/** Number of upcoming answers that the element is stale, by command name. */
+	private final Map<String, Integer> staleAnswers = new HashMap<String, Integer>();
+
+	/** Number of upcoming answers that the element is disabled. */
+	private int disabledAnswers;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param delayMillis
+	 *            Milliseconds each command takes.
+	 */
+	FakeRemoteEnd(long delayMillis) {
+		this.delayMillis = delayMillis;
+	}
+
+	/**
+	 * Makes the next round trips of a command fail with an IOException, as if
+	 * the connection had dropped.
+	 *
+	 * @param command
+	 *            The command name, e.g. findElement.
+	 * @param times
+	 *            Number of round trips to fail.
+	 */
+	synchronized void fail(String command, int times) {
+		failures.put(command, times);
+	}
+
+	/**
+	 * Makes the next answers to a command say that the element has gone
+	 * stale, as if the page had re-rendered it.
+	 *
+	 * @param command
+	 *            The command name, e.g. clickElement.
+	 * @param times
+	 *            Number of answers.
+	 */
+	synchronized void stale(String command, int times) {
+		staleAnswers.put(command, times);
+	}
+
+	/**
+	 * Makes the next answers to whether the element is enabled say that it is
+	 * not, as if a form were still loading.
+	 *
+	 * @param times
+	 *            Number of answers.
+	 */
+	synchronized void disabled(int times) {
+		disabledAnswers = times;
+	}
+
+	/**
+	 * Get the number of times a command was sent, including failed round
+	 * trips.
+	 *
+	 * @param command
+	 *            The command name, e.g. findElement.
+	 * @return The number of times.
+	 */
+	synchronized int count(String command) {
+		int count = 0;
+		for (String name : sent) {
+			if (name.equals(command)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public Response execute(Command command) throws IOException {
+		try {
+			Thread.sleep(delayMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		String name = command.getName();
+		synchronized (this) {
+			sent.add(name);
+			Integer failing = failures.get(name);
+			if (null != failing && failing > 0) {
+				failures.put(name, failing - 1);
+				throw new IOException("Connection reset sending " + name);
+			}
+		}
+
+		Response response = new Response();
+		response.setStatus(0);
+		response.setSessionId("fake-session");
+		if (answerStale(name)) {
+			response.setStatus(ErrorCodes.STALE_ELEMENT_REFERENCE);
+			Map<String, Object> error = new HashMap<String, Object>();
+			error.put("message", "stale element reference: element is not attached to the page document");
+			response.setValue(error);
+		} else if (DriverCommand.NEW_SESSION.equals(name)) {
+			Map<String, Object> capabilities = new HashMap<String, Object>();
+			capabilities.put("browserName", "fake");
+			response.setValue(capabilities);
+		} else if (DriverCommand.FIND_ELEMENT.equals(name) || DriverCommand.FIND_CHILD_ELEMENT.equals(name)) {
+			response.setValue(element());
+		} else if (DriverCommand.IS_ELEMENT_ENABLED.equals(name)) {
+			response.setValue(!answerDisabled());
+		} else if (DriverCommand.IS_ELEMENT_DISPLAYED.equals(name)) {
+			response.setValue(Boolean.TRUE);
+		} else if (DriverCommand.EXECUTE_SCRIPT.equals(name)) {
+			response.setValue(findEach(command.getParameters().get("args")));
+		} else if (DriverCommand.EXECUTE_ASYNC_SCRIPT.equals(name)) {
+			Object script = command.getParameters().get("script");
+			response.setValue(String.valueOf(script).contains("MutationObserver") ? element() : null);
+		} else if (DriverCommand.FIND_ELEMENTS.equals(name) || DriverCommand.FIND_CHILD_ELEMENTS.equals(name)) {
+			List<Object> elements = new ArrayList<Object>();
+			elements.add(element());
+			response.setValue(elements);
+		}
+		return response;
+	}
+
+	private synchronized boolean answerDisabled() {
+		if (disabledAnswers <= 0) {
+			return false;
+		}
+		disabledAnswers--;
+		return true;
+	}
+
+	private synchronized boolean answerStale(String name) {
+		Integer stale = staleAnswers.get(name);
+		if (null == stale || stale <= 0) {
+			return false;
+		}
+		staleAnswers.put(name, stale - 1);
+		return true;
+	}
+
+	/**
+	 * Answers a script given a list of locators, as the harness sends to
+	 * find several elements at once, with the element for each locator.
+	 */
+	private static List<Object> findEach(Object args) {
+		if (!(args instanceof List) || ((List<?>) args).isEmpty()
+				|| !(((List<?>) args).get(0) instanceof Collection)) {
+			return null;
+		}
+		List<Object> elements = new ArrayList<Object>();
+		for (int i = 0; i < ((Collection<?>) ((List<?>) args).get(0)).size(); i++) {
+			elements.add(element());
+		}
+		return elements;
+	}
+
+	private static Map<String, Object> element() {
+		Map<String, Object> element = new HashMap<String, Object>();
+		element.put("ELEMENT", ELEMENT);
+		return element;
+	}
+}
@@ -0,0 +1,375 @@
+package iris.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Generates test data (names, numbers, points and CQL filters) from a
+ *         seed, so a failure involving generated data can be reproduced. As a
+ *         rule, the factory is reseeded before each test from the run seed and
+ *         the test name, and the seed is logged and recorded in the event
+ *         stream. Rerunning with -DtestSeed=&lt;run seed&gt; gives every test
+ *         the same data again.
+ *
+ *         Each thread draws from its own generator split from the test's
+ *         generator, so threads never contend. Which split a thread gets
+ *         depends on the order threads start; data which must be the same on
+ *         every run whatever the thread, e.g. per data row, should come from
+ *         {@link #forKey(long)}.
+ *
+ */
+public class FixtureFactory implements TestRule {
+
+	private static final Logger logger = LoggerFactory.getLogger(FixtureFactory.class);
+
+	/** Characters of generated strings. */
+	private static final char[] ALPHANUMERIC = "abcdefghijklmnopqrstuvwxyz123456789".toCharArray();
+
+	/** Characters of generated numbers. */
+	private static final char[] DIGITS = "0123456789".toCharArray();
+
+	/** Seed of the whole run, from -DtestSeed or chosen at random. */
+	private static final long RUN_SEED = runSeed();
+
+	/** Factory used when no test has set one on the current thread. */
+	private static final FixtureFactory DEFAULT = new FixtureFactory(RUN_SEED);
+
+	/** The factory of the test running on each thread. */
+	private static final ThreadLocal<FixtureFactory> current = new ThreadLocal<FixtureFactory>();
+
+	/** Seed of the current test's data. */
+	private volatile long seed;
+
+	/** Generator the per-thread generators are split from. */
+	private SplittableRandom root;
+
+	/** Each thread's generator, replaced whenever the factory is reseeded. */
+	private volatile ThreadLocal<SplittableRandom> generators;
+
+	/**
+	 * Constructor, seeded from the run seed until a test starts.
+	 */
+	public FixtureFactory() {
+		this(RUN_SEED);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param seed
+	 *            The seed.
+	 */
+	public FixtureFactory(long seed) {
+		reseed(seed);
+	}
+
+	/**
+	 * Get the factory of the test running on the current thread.
+	 *
+	 * @return The factory, or one seeded from the run seed if no test has set
+	 *         one.
+	 */
+	public static FixtureFactory current() {
+		FixtureFactory factory = current.get();
+		return null == factory ? DEFAULT : factory;
+	}
+
+	/**
+	 * Sets the factory used by {@link #current()} on the current thread, e.g.
+	 * on a worker thread driving a session for a test.
+	 *
+	 * @param factory
+	 *            The factory, or null to clear it.
+	 */
+	public static void setCurrent(FixtureFactory factory) {
+		if (null == factory) {
+			current.remove();
+		} else {
+			current.set(factory);
+		}
+	}
+
+	/**
+	 * @return The seed of the whole run, to pass as -DtestSeed to reproduce
+	 *         it.
+	 */
+	public static long getRunSeed() {
+		return RUN_SEED;
+	}
+
+	public Statement apply(final Statement base, final Description description) {
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				String test = description.getDisplayName();
+				reseed(mix(RUN_SEED ^ test.hashCode()));
+				logger.info("Test data for {} seeded with {} (rerun with -DtestSeed={})", test, seed, RUN_SEED);
+				EventStream.emit("seed", test, -1, null, Long.toString(seed));
+
+				FixtureFactory previous = current.get();
+				setCurrent(FixtureFactory.this);
+				try {
+					base.evaluate();
+				} finally {
+					setCurrent(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return The seed of the current test's data.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Creates a factory whose data depends only on this factory's seed and
+	 * the specified key, whichever thread uses it.
+	 *
+	 * @param key
+	 *            The key, e.g. a data row index.
+	 * @return The new factory.
+	 */
+	public FixtureFactory forKey(long key) {
+		return new FixtureFactory(mix(seed + mix(key)));
+	}
+
+	/**
+	 * Generates a string of lower case letters and digits.
+	 *
+	 * @param size
+	 *            The length of the string.
+	 * @return The string.
+	 */
+	public String string(int size) {
+		return fill(generator(), ALPHANUMERIC, size);
+	}
+
+	/**
+	 * Generates a string of digits.
+	 *
+	 * @param size
+	 *            The number of digits.
+	 * @return The string.
+	 */
+	public String number(int size) {
+		return fill(generator(), DIGITS, size);
+	}
+
+	/**
+	 * Generates a number in a range.
+	 *
+	 * @param min
+	 *            The smallest number, inclusive.
+	 * @param max
+	 *            The largest number, exclusive.
+	 * @return The number.
+	 */
+	public int number(int min, int max) {
+		return generator().nextInt(min, max);
+	}
+
+	/**
+	 * Generates a name made of a prefix and a random suffix, e.g. a filter
+	 * name which will not clash with those of other tests.
+	 *
+	 * @param prefix
+	 *            The start of the name.
+	 * @return The name.
+	 */
+	public String name(String prefix) {
+		return prefix + " " + string(8);
+	}
+
+	/**
+	 * Generates a WKT point within an area, to 5 decimal places.
+	 *
+	 * @param area
+	 *            The area.
+	 * @return The point, e.g. POINT(-4.04254 52.18759).
+	 */
+	public String point(Area area) {
+		return appendPoint(new StringBuilder(32), generator(), area).toString();
+	}
+
+	/**
+	 * Generates a CQL DWITHIN filter around a point within an area.
+	 *
+	 * @param column
+	 *            The geometry column, e.g. the_geom.
+	 * @param area
+	 *            The area the point is in.
+	 * @param maxKilometres
+	 *            The largest distance, at least 1.
+	 * @return The filter, e.g. DWITHIN(the_geom, POINT(-4.04254 52.18759), 10,
+	 *         kilometers).
+	 */
+	public String dwithin(String column, Area area, int maxKilometres) {
+		return appendDwithin(new StringBuilder(64), generator(), column, area, maxKilometres).toString();
+	}
+
+	/**
+	 * Generates many strings at once.
+	 *
+	 * @param count
+	 *            The number of strings.
+	 * @param size
+	 *            The length of each string.
+	 * @return The strings.
+	 */
+	public List<String> strings(int count, int size) {
+		SplittableRandom random = generator();
+		List<String> strings = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			strings.add(fill(random, ALPHANUMERIC, size));
+		}
+		return strings;
+	}
+
+	/**
+	 * Generates many CQL DWITHIN filters at once.
+	 *
+	 * @param count
+	 *            The number of filters.
+	 * @param column
+	 *            The geometry column.
+	 * @param area
+	 *            The area the points are in.
+	 * @param maxKilometres
+	 *            The largest distance, at least 1.
+	 * @return The filters.
+	 */
+	public List<String> dwithinFilters(int count, String column, Area area, int maxKilometres) {
+		SplittableRandom random = generator();
+		List<String> filters = new ArrayList<String>(count);
+		StringBuilder sb = new StringBuilder(64);
+		for (int i = 0; i < count; i++) {
+			sb.setLength(0);
+			filters.add(appendDwithin(sb, random, column, area, maxKilometres).toString());
+		}
+		return filters;
+	}
+
+	/** A longitude and latitude box points are generated in. */
+	public static final class Area {
+
+		/** Wales, the area of the sample data. */
+		public static final Area WALES = new Area(-5.3, 51.35, -2.65, 53.45);
+
+		private final double minLongitude;
+		private final double minLatitude;
+		private final double maxLongitude;
+		private final double maxLatitude;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param minLongitude
+		 *            West edge.
+		 * @param minLatitude
+		 *            South edge.
+		 * @param maxLongitude
+		 *            East edge.
+		 * @param maxLatitude
+		 *            North edge.
+		 */
+		public Area(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude) {
+			this.minLongitude = minLongitude;
+			this.minLatitude = minLatitude;
+			this.maxLongitude = maxLongitude;
+			this.maxLatitude = maxLatitude;
+		}
+	}
+
+	private synchronized void reseed(long seed) {
+		this.seed = seed;
+		this.root = new SplittableRandom(seed);
+		this.generators = new ThreadLocal<SplittableRandom>();
+	}
+
+	/**
+	 * Get the current thread's generator, splitting one off the root on first
+	 * use.
+	 */
+	private SplittableRandom generator() {
+		ThreadLocal<SplittableRandom> local = generators;
+		SplittableRandom random = local.get();
+		if (null == random) {
+			synchronized (this) {
+				random = root.split();
+			}
+			local.set(random);
+		}
+		return random;
+	}
+
+	private static String fill(SplittableRandom random, char[] chars, int size) {
+		char[] buffer = new char[size];
+		for (int i = 0; i < size; i++) {
+			buffer[i] = chars[random.nextInt(chars.length)];
+		}
+		return new String(buffer);
+	}
+
+	private static StringBuilder appendDwithin(StringBuilder sb, SplittableRandom random, String column, Area area,
+			int maxKilometres) {
+		sb.append("DWITHIN(").append(column).append(", ");
+		appendPoint(sb, random, area);
+		return sb.append(", ").append(1 + random.nextInt(Math.max(1, maxKilometres))).append(", kilometers)");
+	}
+
+	private static StringBuilder appendPoint(StringBuilder sb, SplittableRandom random, Area area) {
+		sb.append("POINT(");
+		appendFixed(sb, random.nextDouble(area.minLongitude, area.maxLongitude));
+		sb.append(' ');
+		appendFixed(sb, random.nextDouble(area.minLatitude, area.maxLatitude));
+		return sb.append(')');
+	}
+
+	/**
+	 * Appends a number to 5 decimal places without going through
+	 * String.format, which is far slower.
+	 */
+	private static void appendFixed(StringBuilder sb, double value) {
+		long scaled = Math.round(value * 100000);
+		if (scaled < 0) {
+			sb.append('-');
+			scaled = -scaled;
+		}
+		sb.append(scaled / 100000).append('.');
+		long fraction = scaled % 100000;
+		for (long digit = 10000; digit > fraction && digit > 1; digit /= 10) {
+			sb.append('0');
+		}
+		sb.append(fraction);
+	}
+
+	private static long runSeed() {
+		Long seed = Long.getLong("testSeed");
+		if (null == seed) {
+			seed = mix(System.nanoTime() ^ System.currentTimeMillis());
+		}
+		logger.info("Test data run seed {}", seed);
+		return seed;
+	}
+
+	/**
+	 * Scrambles the bits of a value, so nearby inputs give unrelated seeds.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,202 @@
+package iris.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Keeps a flakiness score between 0 and 1 for each test, persisted
+ *         between runs. Each recorded run moves the score towards 1 if the run
+ *         was flaky (it needed a retry, or failed only with transient WebDriver
+ *         errors) and towards 0 if it passed first time, so the score is a
+ *         moving average of how often the test is flaky. Runs which fail an
+ *         assertion are real failures and are not recorded. A
+ *         test whose score reaches the quarantine threshold, after enough runs
+ *         to judge, is quarantined by {@link RetryRule}.
+ *
+ *         Scores are kept in the file given by the -DflakinessFile VM arg,
+ *         default .iris-flakiness.properties in the user's home directory, so
+ *         they survive mvn clean; on CI point it at a directory the server
+ *         keeps between builds. Each update locks the file, re-reads it and writes it back,
+ *         so forked test JVMs sharing the file do not lose each other's
+ *         updates. -DflakyThreshold (default 0.3) sets the quarantine
+ *         threshold.
+ *
+ */
+public final class FlakinessScores {
+
+	private static final Logger logger = LoggerFactory.getLogger(FlakinessScores.class);
+
+	/** Weight of the latest run in the moving average. */
+	private static final double WEIGHT = 0.2;
+
+	/** Fewest recorded runs before a test can be quarantined. */
+	private static final int MIN_RUNS = 5;
+
+	/** The scores shared by every test in this JVM. */
+	private static FlakinessScores instance;
+
+	/** Guards {@link #instance}, held while the scores are loaded. */
+	private static final Lock instanceLock = new ReentrantLock();
+
+	/** The file the scores are kept in. */
+	private final File file;
+
+	/** Score at or above which a test is quarantined. */
+	private final double threshold;
+
+	/** Each test's score and number of runs, as "score,runs". */
+	private final Properties scores = new Properties();
+
+	/** Guards the scores, held while they are saved. */
+	private final Lock lock = new ReentrantLock();
+
+	/**
+	 * Get the scores shared by every test in this JVM, loading them on first
+	 * use.
+	 *
+	 * @return The flakiness scores.
+	 */
+	public static FlakinessScores get() {
+		instanceLock.lock();
+		try {
+			if (null == instance) {
+				instance = new FlakinessScores(
+						new File(System.getProperty("flakinessFile",
+								new File(System.getProperty("user.home"), ".iris-flakiness.properties").getPath())),
+						Double.parseDouble(System.getProperty("flakyThreshold", "0.3")));
+			}
+			return instance;
+		} finally {
+			instanceLock.unlock();
+		}
+	}
+
+	/**
+	 * Constructor, loading any existing scores.
+	 *
+	 * @param file
+	 *            The file the scores are kept in.
+	 * @param threshold
+	 *            Score at or above which a test is quarantined.
+	 */
+	public FlakinessScores(File file, double threshold) {
+		this.file = file;
+		this.threshold = threshold;
+
+		try {
+			load();
+		} catch (IOException e) {
+			logger.error("Failed to read flakiness scores\n" + e.getMessage());
+		}
+	}
+
+	/**
+	 * Get the score of a test.
+	 *
+	 * @param test
+	 *            The test name.
+	 * @return The score, 0 if the test has no runs recorded.
+	 */
+	public double score(String test) {
+		lock.lock();
+		try {
+			String value = scores.getProperty(test);
+			return null == value ? 0 : Double.parseDouble(value.split(",")[0]);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Checks whether a test is quarantined.
+	 *
+	 * @param test
+	 *            The test name.
+	 * @return True if the test has enough runs and its score is at or above
+	 *         the threshold.
+	 */
+	public boolean isQuarantined(String test) {
+		lock.lock();
+		try {
+			String value = scores.getProperty(test);
+			return null != value && Integer.parseInt(value.split(",")[1]) >= MIN_RUNS && score(test) >= threshold;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records a run of a test and saves the scores.
+	 *
+	 * @param test
+	 *            The test name.
+	 * @param flaky
+	 *            True if the run was flaky, false if it passed first time.
+	 */
+	public void record(String test, boolean flaky) {
+		lock.lock();
+		try {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			RandomAccessFile lockFile = new RandomAccessFile(new File(file.getPath() + ".lock"), "rw");
+			try {
+				// Held across the read, update and write, against other JVMs
+				FileLock fileLock = lockFile.getChannel().lock();
+				try {
+					load();
+					String value = scores.getProperty(test);
+					int runs = null == value ? 0 : Integer.parseInt(value.split(",")[1]);
+					double score = (1 - WEIGHT) * score(test) + (flaky ? WEIGHT : 0);
+					scores.setProperty(test, String.format(Locale.ROOT, "%.4f,%d", score, runs + 1));
+
+					OutputStream out = new FileOutputStream(file);
+					try {
+						scores.store(out, "Flakiness score,runs per test");
+					} finally {
+						out.close();
+					}
+				} finally {
+					fileLock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		} catch (IOException e) {
+			logger.error("Failed to write flakiness scores\n" + e.getMessage());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Replaces the scores held with those in the file, if it exists.
+	 */
+	private void load() throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		Properties latest = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			latest.load(in);
+		} finally {
+			in.close();
+		}
+		scores.clear();
+		scores.putAll(latest);
+	}
+}
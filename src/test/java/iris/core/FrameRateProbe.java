@@ -0,0 +1,167 @@
+package iris.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Samples the page's frame rate over a window chosen by the test, e.g.
+ *         while a filter is applied. Once started, a requestAnimationFrame
+ *         loop in the page records the time between frames; nothing crosses
+ *         the wire until the probe is stopped, so sampling does not itself
+ *         slow the map. At most 20000 frames are kept.
+ *
+ *         A frame over 50ms is a long frame (the threshold of the Long Tasks
+ *         API); one over 25ms, 1.5 times the 60Hz frame time, is janky. The
+ *         result is logged and emitted as a frames event.
+ *
+ */
+public class FrameRateProbe {
+
+	private static final Logger logger = LoggerFactory.getLogger(FrameRateProbe.class);
+
+	/** Frame time above which a frame is long, in milliseconds. */
+	private static final double LONG_FRAME_MILLIS = 50;
+
+	/** Frame time above which a frame is janky, in milliseconds. */
+	private static final double JANK_MILLIS = 25;
+
+	/** Starts recording frame intervals, replacing any running probe. */
+	static final String START_SCRIPT = "var old = window.__irisFrameProbe; if (old) { old.running = false; }"
+			+ "var s = window.__irisFrameProbe = { frames: [], last: 0, running: true, started: performance.now() };"
+			+ "function tick(t) { if (!s.running) { return; }"
+			+ " if (s.last && s.frames.length < 20000) { s.frames.push(t - s.last); }"
+			+ " s.last = t; requestAnimationFrame(tick); }"
+			+ "requestAnimationFrame(tick);";
+
+	/** Stops recording and returns the frame intervals and elapsed time. */
+	static final String STOP_SCRIPT = "var s = window.__irisFrameProbe; if (!s) { return null; }"
+			+ "s.running = false; window.__irisFrameProbe = null;"
+			+ "return { frames: s.frames, elapsed: performance.now() - s.started };";
+
+	/** The frame rate over one window. */
+	public static final class Result {
+		private final String label;
+		private final double[] frames;
+		private final double elapsedMillis;
+
+		private Result(String label, double[] frames, double elapsedMillis) {
+			this.label = label;
+			this.frames = frames;
+			this.elapsedMillis = elapsedMillis;
+			Arrays.sort(this.frames);
+		}
+
+		/**
+		 * @return Number of frames drawn.
+		 */
+		public int getFrames() {
+			return frames.length;
+		}
+
+		/**
+		 * @return Frames per second over the window, 0 if nothing was
+		 *         sampled.
+		 */
+		public double getFps() {
+			return elapsedMillis <= 0 ? 0 : frames.length * 1000 / elapsedMillis;
+		}
+
+		/**
+		 * @return Number of frames over 50ms.
+		 */
+		public int getLongFrames() {
+			return countOver(LONG_FRAME_MILLIS);
+		}
+
+		/**
+		 * @return Number of frames over 25ms.
+		 */
+		public int getJankyFrames() {
+			return countOver(JANK_MILLIS);
+		}
+
+		/**
+		 * Get a percentile of the frame times.
+		 *
+		 * @param percentile
+		 *            The percentile, between 0 and 100.
+		 * @return The frame time in milliseconds, 0 if nothing was sampled.
+		 */
+		public double percentile(double percentile) {
+			if (0 == frames.length) {
+				return 0;
+			}
+			int rank = (int) Math.ceil(percentile / 100 * frames.length);
+			return frames[Math.max(0, rank - 1)];
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT,
+					"%s: %.1f fps, %d frame(s) in %.0f ms, %d long, %d janky, frame time p50 %.1f p95 %.1f p99 %.1f max %.1f ms",
+					label, getFps(), frames.length, elapsedMillis, getLongFrames(), getJankyFrames(), percentile(50),
+					percentile(95), percentile(99), percentile(100));
+		}
+
+		private int countOver(double millis) {
+			int count = 0;
+			for (int i = frames.length - 1; i >= 0 && frames[i] > millis; i--) {
+				count++;
+			}
+			return count;
+		}
+	}
+
+	/** The page being sampled. */
+	private final WebDriver driver;
+
+	/**
+	 * Starts sampling the frame rate of the page the driver is on.
+	 *
+	 * @param driver
+	 *            The web driver, which must support scripts.
+	 */
+	public FrameRateProbe(WebDriver driver) {
+		this.driver = driver;
+		((JavascriptExecutor) driver).executeScript(START_SCRIPT);
+	}
+
+	/**
+	 * Stops sampling and reports the frame rate since the probe started. If
+	 * the page was reloaded in the meantime the result is empty.
+	 *
+	 * @param label
+	 *            What the page was doing, e.g. "apply filter".
+	 * @return The frame rate.
+	 */
+	@SuppressWarnings("unchecked")
+	public Result stop(String label) {
+		Map<String, Object> sampled = (Map<String, Object>) ((JavascriptExecutor) driver).executeScript(STOP_SCRIPT);
+		double[] frames = new double[0];
+		double elapsed = 0;
+		if (null != sampled) {
+			List<Object> intervals = (List<Object>) sampled.get("frames");
+			frames = new double[intervals.size()];
+			for (int i = 0; i < frames.length; i++) {
+				frames[i] = ((Number) intervals.get(i)).doubleValue();
+			}
+			elapsed = ((Number) sampled.get("elapsed")).doubleValue();
+		} else {
+			logger.warn("Frame rate probe for '{}' was lost, was the page reloaded?", label);
+		}
+
+		Result result = new Result(label, frames, elapsed);
+		logger.info("{}", result);
+		EventStream.emit("frames", label, Math.round(result.percentile(95)), null, result.toString());
+		return result;
+	}
+}
@@ -3,15 +3,29 @@ package iris.core;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
 import org.openqa.selenium.Alert;
 import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.SearchContext;
 import org.openqa.selenium.StaleElementReferenceException;
@@ -19,6 +33,7 @@ import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.Actions;
+import org.openqa.selenium.internal.WrapsElement;
 import org.openqa.selenium.support.ui.FluentWait;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +55,99 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 
 	private static final Logger logger = LoggerFactory.getLogger(IrisAbstractSelenium.class);
 
+	/** Number of seconds the wait helpers wait before timing out. */
+	static final int WAIT_TIMEOUT_SECONDS = 15;
+
+	/**
+	 * Script which resolves several locators in one call. Arguments: the
+	 * translated locators and the root node (or null for the document).
+	 * Returns the first match for each locator, or null where there is none.
+	 */
+	private static final String RESOLVE_ALL_SCRIPT = ScriptLocator.FINDER
+			+ "var locators = arguments[0], root = arguments[1];"
+			+ "return locators.map(function(loc) { var found = irisFind(root, loc); return found.length ? found[0] : null; });";
+
+	/**
+	 * Script which waits, using a MutationObserver, for a locator to match or
+	 * to stop matching. Arguments: the translated locator, the root node (or
+	 * null for the document), true to wait for a match or false to wait for no
+	 * match, the timeout in milliseconds and the async callback. Calls back
+	 * with the matching element (or true when waiting for no match), or null
+	 * on timeout.
+	 */
+	private static final String OBSERVE_SCRIPT = ScriptLocator.FINDER
+			+ "var loc = arguments[0], root = arguments[1], present = arguments[2], timeout = arguments[3];"
+			+ "var done = arguments[arguments.length - 1];"
+			+ "function check() {"
+			+ "  var found = irisFind(root, loc);"
+			+ "  if (present) { return found.length ? found[0] : null; }"
+			+ "  return found.length ? null : true;"
+			+ "}"
+			+ "var result = check();"
+			+ "if (result) { done(result); return; }"
+			+ "var finished = false, timer;"
+			+ "var observer = new MutationObserver(function() {"
+			+ "  if (finished) { return; }"
+			+ "  var r = check();"
+			+ "  if (r) { finish(r); }"
+			+ "});"
+			+ "function finish(r) { finished = true; observer.disconnect(); clearTimeout(timer); done(r); }"
+			+ "timer = setTimeout(function() { finish(null); }, timeout);"
+			+ "observer.observe(root || document, { childList: true, subtree: true, attributes: true });";
+
+	/** How the wait helpers detect elements being loaded and unloaded. */
+	private WaitMode waitMode = WaitMode.fromSystemProperty();
+
+	/** Enforces and reports the time budget of each test. */
+	private final TimeBudgetRule timeBudget = new TimeBudgetRule();
+
+	/** Seeded test data, reseeded before every attempt of each test. */
+	protected final FixtureFactory fixtures = new FixtureFactory();
+
+	/**
+	 * Skips the whole class when -DimpactBase is given and the class is not
+	 * affected by the changes since that revision.
+	 */
+	@ClassRule
+	public static final TestRule changeImpact = new ChangeImpactRule();
+
+	/**
+	 * Rules applied to every test: each repeat of the test has its own time
+	 * budget, which covers every attempt made by the retry rule, and each
+	 * attempt gets the same test data.
+	 */
+	@Rule
+	public final TestRule harnessRules = RuleChain.outerRule(new RepeatRule()).around(timeBudget)
+			.around(new RetryRule(this)).around(fixtures);
+
+	/**
+	 * Deadline budget shared by the wait helpers of the current step. Each
+	 * thread driving a session has its own engine.
+	 */
+	private final ThreadLocal<WaitEngine> waitEngines = new ThreadLocal<WaitEngine>() {
+		@Override
+		protected WaitEngine initialValue() {
+			return new WaitEngine(IrisAbstractSelenium.this, timeBudget);
+		}
+	};
+
+	/**
+	 * Page objects of the session driven by each thread, by type, see
+	 * {@link #page(Class)}.
+	 */
+	private final ThreadLocal<Map<Class<?>, DataPage>> pages = new ThreadLocal<Map<Class<?>, DataPage>>() {
+		@Override
+		protected Map<Class<?>, DataPage> initialValue() {
+			return new HashMap<Class<?>, DataPage>();
+		}
+	};
+
+	/** Locator of the canvas the Cesium map is drawn on. */
+	protected static final By MAP_CANVAS = By.cssSelector(".cesium-widget canvas");
+
+	/** Compares screenshots against stored baselines. */
+	private final VisualCheck visualCheck = new VisualCheck();
+
 	/**
 	 * Login and then Navigate to a page of your specification. Xpath is used
 	 * when the link being navigated to is on the left hand side panel rather
@@ -54,15 +162,390 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 	 * @return The web driver for this test session.
 	 */
 	protected WebDriver loadIrisCesiumMap(String testName) {
-		getLogger().info("============ " + testName + " Start ============");
+		getLogger().info("============ {} Start ============", testName);
+		timeBudget.check("loading the map");
 
 		WebDriver driver = getDriver();
 		driver.get(getBaseURL());
+		invalidatePages();
 		resizeTest(driver);
+		PageTimings.capture(driver, "load map", true);
 
 		return driver;
 	}
 
+	/**
+	 * Get a page object of the current session. Page objects are generated
+	 * from the data files by {@link PageObjectGenerator}; on first use their
+	 * elements are waited for until enabled, with {@link #waitForEnabledIn},
+	 * and they are kept until the page is navigated away from.
+	 * 
+	 * @param type
+	 *            The page object class, which must have a public constructor
+	 *            taking the search context.
+	 * @return The page object, created on first use in this session.
+	 */
+	protected <P extends DataPage> P page(Class<P> type) {
+		WebDriver driver = getDriver();
+		Map<Class<?>, DataPage> cache = pages.get();
+		DataPage page = cache.get(type);
+		if (null == page || page.getSearchContext() != driver) {
+			try {
+				page = type.getConstructor(SearchContext.class).newInstance(driver);
+			} catch (Exception e) {
+				throw new IllegalArgumentException("Cannot create page object " + type.getName(), e);
+			}
+			page.waitWith(this);
+			cache.put(type, page);
+		}
+		return type.cast(page);
+	}
+
+	/**
+	 * Drops the elements kept by the page objects of the current session,
+	 * e.g. after navigating to another page.
+	 */
+	protected void invalidatePages() {
+		for (DataPage page : pages.get().values()) {
+			page.invalidate();
+		}
+	}
+
+	/**
+	 * Records the browser's timings of the resources loaded since the last
+	 * capture, e.g. just after applying a filter, see {@link PageTimings}.
+	 * 
+	 * @param label
+	 *            What the page has just done, e.g. "apply filter".
+	 */
+	protected void capturePageTimings(String label) {
+		PageTimings.capture(getDriver(), label, false);
+	}
+
+	/**
+	 * Times the XPath locators in the data files of the specified classes
+	 * against the page the driver is on, and reports those which are slow,
+	 * ambiguous or brittle, see {@link LocatorAnalyzer}.
+	 * 
+	 * @param testClasses
+	 *            The classes whose data files are checked, by default this
+	 *            class.
+	 * @return The findings.
+	 * @throws IOException
+	 *             If a data file cannot be read.
+	 */
+	protected List<LocatorAnalyzer.Finding> analyzeLocators(Class<?>... testClasses) throws IOException {
+		return new LocatorAnalyzer(getDriver()).analyze(0 == testClasses.length ? new Class<?>[] { getClass() }
+				: testClasses);
+	}
+
+	/**
+	 * Starts sampling the frame rate of the current page, e.g. just before
+	 * applying a filter. Stop the probe to get the FPS, long frames and jank
+	 * percentiles of the window, see {@link FrameRateProbe}.
+	 * 
+	 * @return The running probe.
+	 */
+	protected FrameRateProbe startFrameProbe() {
+		return new FrameRateProbe(getDriver());
+	}
+
+	/**
+	 * Starts recording the page's XHR and fetch requests, e.g. just before
+	 * applying a filter. Stop the probe to split the time since it started
+	 * into server and client time, see {@link NetworkProbe}.
+	 * 
+	 * @return The running probe.
+	 */
+	protected NetworkProbe startNetworkProbe() {
+		return new NetworkProbe(getDriver());
+	}
+
+	/**
+	 * Starts recording a flow of steps to be performed within the specified
+	 * search context. Consecutive steps are run in a single script call where
+	 * possible, see {@link IrisFlow}.
+	 * 
+	 * @param searchContext
+	 *            The search context in which the elements are to be found.
+	 * @return The new flow.
+	 */
+	protected IrisFlow flow(SearchContext searchContext) {
+		return new IrisFlow(this, searchContext);
+	}
+
+	/**
+	 * Runs the specified task for every row of the specified data file, spread
+	 * across the specified number of browser sessions. Rows are read from the
+	 * file one at a time as sessions become free, so the file is never loaded
+	 * into memory. Each session runs on its own worker thread (a virtual
+	 * thread where available, see {@link SessionExecutors}), where
+	 * {@link #getDriver()} returns it. The first worker runs rows on the
+	 * test's own session, so it is not left idle; the others open a session
+	 * each and close it when the rows run out.
+	 * The outcome and timing of every row is recorded by {@link RowResults}.
+	 * Throws an AssertionError listing the failed rows if any row fails.
+	 * 
+	 * @param fileName
+	 *            The data file, kept in the same package as the test class's
+	 *            own data file, see {@link DataRows}.
+	 * @param sessions
+	 *            Number of browser sessions to run rows on at once.
+	 * @param task
+	 *            The work to do for each row.
+	 * @throws Exception
+	 *             If the data file cannot be read, a session cannot be opened
+	 *             or the run is interrupted.
+	 * @throws AssertionError
+	 *             If any row fails.
+	 */
+	protected void runForEachRow(final String fileName, final int sessions, final RowTask task) throws Exception {
+		final DataRows rows = DataRows.open(getClass(), fileName);
+		final RowResults results = new RowResults(getClass().getSimpleName() + "-"
+				+ fileName.replaceFirst("\\.[^.]*$", ""));
+		final String test = EventStream.getCurrentTest();
+		final WebDriver own = getDriver();
+		ExecutorService executor = SessionExecutors.newExecutor("rows", sessions);
+
+		try {
+			List<Future<Void>> workers = new ArrayList<Future<Void>>();
+			for (int i = 0; i < sessions; i++) {
+				final boolean reuse = 0 == i && null != own;
+				workers.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						EventStream.setCurrentTest(test);
+						FixtureFactory.setCurrent(fixtures);
+						// The test's own session is closed by after()
+						WebDriver session = reuse ? own : openSession();
+						bindSession(session);
+						try {
+							DataRows.Row row;
+							while (null != (row = rows.next())) {
+								long started = System.nanoTime();
+								try {
+									task.run(row);
+									results.passed(row, millisSince(started));
+								} catch (TimeBudgetExceededException e) {
+									results.failed(row, millisSince(started), e);
+									throw e;
+								} catch (Throwable t) {
+									results.failed(row, millisSince(started), t);
+								}
+							}
+						} finally {
+							bindSession(null);
+							if (!reuse) {
+								session.quit();
+							}
+							EventStream.setCurrentTest(null);
+							FixtureFactory.setCurrent(null);
+						}
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> worker : workers) {
+				try {
+					worker.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			rows.close();
+			results.close();
+		}
+
+		getLogger().info("{}", results.summary());
+		if (results.getFailureCount() > 0) {
+			Assert.fail(results.summary());
+		}
+	}
+
+	/**
+	 * Runs the specified scenario as a load test: each virtual user of the
+	 * profile runs on its own worker thread (a virtual thread where
+	 * available, see {@link SessionExecutors}), opens its own headless
+	 * browser session and repeats the scenario, with the profile's think time
+	 * between iterations, from its start time until its stop time. The
+	 * latency and outcome of every wait step, of every iteration (as
+	 * "iteration") and of opening each session (as "open session") are
+	 * collected, written to
+	 * target/failsafe-reports/load-&lt;test class&gt;.csv and returned. Each
+	 * user draws test data from its own {@link FixtureFactory#forKey key} of
+	 * the test's fixtures. A failed iteration is counted, not thrown; a user
+	 * whose session has died opens a new one.
+	 * 
+	 * @param profile
+	 *            The number of users and their ramp-up, steady state and
+	 *            ramp-down.
+	 * @param scenario
+	 *            What each user does in one iteration.
+	 * @return The latencies and error rates of the run.
+	 * @throws Exception
+	 *             If the run is interrupted or the time budget runs out.
+	 */
+	protected LatencyStats runLoad(final LoadProfile profile, final LoadScenario scenario) throws Exception {
+		final LatencyStats stats = new LatencyStats();
+		final String test = EventStream.getCurrentTest();
+		final long start = System.nanoTime();
+		getLogger().info("Starting load run: {}", profile);
+		ExecutorService executor = SessionExecutors.newExecutor("virtual-user", profile.getUsers());
+
+		try {
+			List<Future<Void>> users = new ArrayList<Future<Void>>();
+			for (int i = 0; i < profile.getUsers(); i++) {
+				final int user = i;
+				users.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						long wait = profile.startMillis(user) - millisSince(start);
+						if (wait > 0) {
+							Thread.sleep(wait);
+						}
+						EventStream.setCurrentTest(test);
+						FixtureFactory.setCurrent(fixtures.forKey(user));
+						WaitEngine waitEngine = getWaitEngine();
+						waitEngine.setLatencyStats(stats);
+						WebDriver session = null;
+						try {
+							for (int iteration = 0; millisSince(start) < profile.stopMillis(user); iteration++) {
+								if (null == session) {
+									long opening = System.nanoTime();
+									try {
+										session = openSession(true);
+										bindSession(session);
+										stats.record("open session", millisSince(opening), true);
+									} catch (Exception e) {
+										stats.record("open session", millisSince(opening), false);
+										getLogger().warn("User {} could not open a session: {}", user, e.getMessage());
+										Thread.sleep(profile.getThinkTimeMillis());
+										continue;
+									}
+								}
+
+								long started = System.nanoTime();
+								try {
+									scenario.run(user, iteration);
+									stats.record("iteration", millisSince(started), true);
+								} catch (TimeBudgetExceededException e) {
+									stats.record("iteration", millisSince(started), false);
+									throw e;
+								} catch (Exception e) {
+									stats.record("iteration", millisSince(started), false);
+									getLogger().warn("User {} iteration {} failed: {}", user, iteration, e.toString());
+									try {
+										session.getWindowHandle();
+									} catch (Exception dead) {
+										bindSession(null);
+										quietQuit(session);
+										session = null;
+									}
+								}
+								Thread.sleep(profile.getThinkTimeMillis());
+							}
+						} finally {
+							waitEngine.setLatencyStats(null);
+							bindSession(null);
+							if (null != session) {
+								quietQuit(session);
+							}
+							EventStream.setCurrentTest(null);
+							FixtureFactory.setCurrent(null);
+						}
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> user : users) {
+				try {
+					user.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			stats.report(new File("target/failsafe-reports/load-" + getClass().getSimpleName() + ".csv"));
+		}
+		return stats;
+	}
+
+	/**
+	 * Get the milliseconds elapsed since a System.nanoTime() value.
+	 */
+	private static long millisSince(long nanoTime) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanoTime);
+	}
+
+	/**
+	 * Closes a browser session, logging rather than throwing any failure.
+	 */
+	private void quietQuit(WebDriver session) {
+		try {
+			session.quit();
+		} catch (Exception e) {
+			getLogger().warn("Failed to close browser session: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Get the wait mode used by the load and unload wait helpers.
+	 * 
+	 * @return The wait mode.
+	 */
+	protected WaitMode getWaitMode() {
+		return waitMode;
+	}
+
+	/**
+	 * Set the wait mode used by the load and unload wait helpers.
+	 * 
+	 * @param waitMode
+	 *            The wait mode.
+	 */
+	protected void setWaitMode(final WaitMode waitMode) {
+		this.waitMode = waitMode;
+	}
+
+	/**
+	 * Get the wait engine which hands out time to the wait helpers.
+	 * 
+	 * @return The wait engine.
+	 */
+	protected WaitEngine getWaitEngine() {
+		return waitEngines.get();
+	}
+
+	/**
+	 * Starts a step, so that all of the wait helpers called until
+	 * {@link #endStep()} share a single deadline rather than each having its
+	 * own timeout.
+	 * 
+	 * @param label
+	 *            Description of the step.
+	 * @param timeoutSeconds
+	 *            Number of seconds allowed for the whole step.
+	 */
+	protected void beginStep(String label, int timeoutSeconds) {
+		getWaitEngine().beginStep(label, TimeUnit.SECONDS.toMillis(timeoutSeconds));
+	}
+
+	/**
+	 * Ends the step started with {@link #beginStep(String, int)}.
+	 */
+	protected void endStep() {
+		getWaitEngine().endStep();
+	}
+
 	/**
 	 * Submit the element and quit. Normal process for stopping the test.
 	 * 
@@ -73,7 +556,7 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 		// Quit the browser
 		getDriver().quit();
 
-		getLogger().info("============ " + testName + " Complete ============");
+		getLogger().info("============ {} Complete ============", testName);
 	}
 
 	/**
@@ -86,6 +569,34 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 		driver.manage().window().maximize();
 	}
 
+	/**
+	 * Checks that the Cesium map is drawn the same as the stored baseline of
+	 * the specified name, see {@link VisualCheck}. Throws an AssertionError if
+	 * the map differs from the baseline by more than the tolerance.
+	 * 
+	 * @param name
+	 *            The name of the baseline, unique within the test class.
+	 * @throws AssertionError
+	 *             If the map does not match the baseline.
+	 */
+	protected void checkMapRendering(String name) {
+		WebElement canvas = waitForLoaded(MAP_CANVAS);
+		VisualCheck.Result result = null;
+
+		try {
+			result = visualCheck.compare(getDriver(), canvas, getClass().getSimpleName() + "/" + name);
+		} catch (IOException e) {
+			getLogger().error("FAILED - {}", e.toString());
+			Assert.fail("Could not compare the map with baseline '" + name + "': " + e.getMessage());
+		}
+
+		if (!result.isMatched()) {
+			getLogger().info("Fail - {}", result.getMessage());
+			Assert.fail(result.getMessage());
+		}
+		getLogger().debug(result.getMessage());
+	}
+
 	/**
 	 * Makes the test wait. This is normally used when interacting with
 	 * dynamically refreshing pages.
@@ -140,14 +651,14 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 			try {
 				searchContext.findElement(By.id(textFieldID));
 				// Text field cannot have its text set.
-				getLogger().info("Fail - Could not set the text of the text field with ID '" + textFieldID + "'.");
-				getLogger().error("FAILED - " + e);
+				getLogger().info("Fail - Could not set the text of the text field with ID '{}'.", textFieldID);
+				getLogger().error("FAILED - {}", e.toString());
 				Assert.fail("Exception " + e.getMessage());
 			}
 			// Text field cannot be found.
 			catch (Exception e2) {
-				getLogger().info("Fail - Could not find the text field with ID '" + textFieldID + "'.");
-				getLogger().error("FAILED - " + e2);
+				getLogger().info("Fail - Could not find the text field with ID '{}'.", textFieldID);
+				getLogger().error("FAILED - {}", e2.toString());
 				Assert.fail("Exception " + e2.getMessage());
 			}
 		}
@@ -226,9 +737,9 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 			try {
 				waitForThenClickId(searchContext, dropDownChoiceID);
 			} catch (Exception e2) {
-				getLogger().info("Fail - Unable to select the option with ID '" + dropDownChoiceID
-						+ "' from the opened drop-down menu.");
-				getLogger().error("FAILED - " + e2);
+				getLogger().info("Fail - Unable to select the option with ID '{}' from the opened drop-down menu.",
+						dropDownChoiceID);
+				getLogger().error("FAILED - {}", e2.toString());
 				Assert.fail("Exception " + e2.getMessage());
 			}
 		}
@@ -267,8 +778,8 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 		}
 		// Drop-down field with specified ID cannot be found.
 		catch (TimeoutException e) {
-			getLogger().info("Fail - Drop-down field with ID '" + fieldId + "' not found.");
-			getLogger().error("FAILED - " + e);
+			getLogger().info("Fail - Drop-down field with ID '{}' not found.", fieldId);
+			getLogger().error("FAILED - {}", e.toString());
 			Assert.fail("Exception " + e.getMessage());
 		}
 	}
@@ -302,7 +813,7 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 		String stringFromTextBox = waitForLoadedIn(searchContext, By.id(textFieldId)).getAttribute("value");
 
 		if (!stringFromTextBox.trim().equals(map.get(key))) {
-			logger.info("String from dropdown: " + stringFromTextBox + " key from map: " + map.get(key));
+			logger.info("String from dropdown: {} key from map: {}", stringFromTextBox, map.get(key));
 		}
 		assertTrue(stringFromTextBox.trim().equals(map.get(key)));
 	}
@@ -337,7 +848,7 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 		String stringFromDropDown = waitForLoadedIn(searchContext, By.id(dropDownId)).getText();
 
 		if (!stringFromDropDown.equals(map.get(key))) {
-			logger.info("String from dropdown: " + stringFromDropDown + " key from map: " + map.get(key));
+			logger.info("String from dropdown: {} key from map: {}", stringFromDropDown, map.get(key));
 		}
 		assertTrue(stringFromDropDown.equals(map.get(key)));
 	}
@@ -399,43 +910,27 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 
 	/**
 	 * Generates a random string of the specified size consisting of
-	 * alphanumeric characters.
+	 * alphanumeric characters, from the current test's seeded
+	 * {@link FixtureFactory}.
 	 * 
 	 * @param size
 	 *            The size of the string to generate.
 	 * @return The random string which is generated.
 	 */
 	protected static String generateRandomString(int size) {
-		char[] chars = "abcdefghijklmnopqrstuvwxyz123456789".toCharArray();
-		StringBuilder sb = new StringBuilder();
-		Random random = new Random();
-
-		for (int i = 0; i < size; i++) {
-			char c = chars[random.nextInt(chars.length)];
-			sb.append(c);
-		}
-		String output = sb.toString();
-		return output;
+		return FixtureFactory.current().string(size);
 	}
 
 	/**
 	 * Generates a random string of the specified size consisting of numeric
-	 * characters.
+	 * characters, from the current test's seeded {@link FixtureFactory}.
 	 * 
 	 * @param size
 	 *            The size of the string to generate.
 	 * @return The random string which is generated.
 	 */
 	protected static String generateRandomNumber(int size) {
-		char[] chars = "0123456789".toCharArray();
-		StringBuilder sb = new StringBuilder();
-		Random random = new Random();
-		for (int i = 0; i < size; i++) {
-			char c = chars[random.nextInt(chars.length)];
-			sb.append(c);
-		}
-		String output = sb.toString();
-		return output;
+		return FixtureFactory.current().number(size);
 	}
 
 	/**
@@ -568,7 +1063,7 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 		if (checked != checkedAfter) {
 			assertTrue(true);
 		} else {
-			getLogger().info(getData("Screen") + ": tick box wasn't clicked, problem with the tick box functionality.");
+			getLogger().info("{}: tick box wasn't clicked, problem with the tick box functionality.", getData("Screen"));
 			assertTrue(false);
 		}
 	}
@@ -644,14 +1139,14 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 			try {
 				WebElement element = searchContext.findElement(By.cssSelector("h2"));
 				// Title text not equal to the specified text.
-				getLogger().info("Fail - Title text was '" + element.getText() + "'. Expected: '" + text + "'.");
-				getLogger().error("FAILED - " + e);
+				getLogger().info("Fail - Title text was '{}'. Expected: '{}'.", element.getText(), text);
+				getLogger().error("FAILED - {}", e.toString());
 				Assert.fail(e.getMessage() + "\nTitle text was '" + element.getText() + "'. Expected: '" + text + "'.");
 			}
 			// Page title not found.
 			catch (Exception e2) {
 				getLogger().info("Fail - Page title not found.");
-				getLogger().error("FAILED - " + e2);
+				getLogger().error("FAILED - {}", e2.toString());
 				Assert.fail(e2.getMessage() + "\nPage title not found.");
 			}
 		}
@@ -765,28 +1260,57 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 	 *         function, as applied to the specified input.
 	 * @throws TimeoutException
 	 *             If the specified function, as applied to the specified input,
-	 *             does not return true within 15 seconds of calling this
-	 *             method.
+	 *             does not return true within the time left in the current
+	 *             step (15 seconds if no step is running, see
+	 *             {@link WaitEngine}).
 	 */
 	protected <P, T> T waitForConditionAndReturn(final P input, final Function<P, T> function) {
-		FluentWait<P> wait = new FluentWait<P>(input).withTimeout(15, TimeUnit.SECONDS).pollingEvery(500,
-				TimeUnit.MILLISECONDS);
+		return waitForConditionAndReturn("condition on " + describe(input), input, function);
+	}
 
-		// Check whether the specified function, as applied to the specified
-		// input, initially returns a non-null, non-false value. If this is
-		// true, return that value immediately.
+	/**
+	 * Waits for the specified function as applied to the specified input to
+	 * return a non-null, non-false value, as a step with the specified label
+	 * if no step is running.
+	 * 
+	 * @param label
+	 *            Description of the wait. It names the step in the events,
+	 *            statistics and traces, so it must not change between sessions.
+	 * @param input
+	 *            The input to apply the specified function to.
+	 * @param function
+	 *            The function to be applied to the specified input.
+	 * @return The first non-null, non-false value returned by the function.
+	 * @throws TimeoutException
+	 *             If the function does not return a value in time.
+	 */
+	private <P, T> T waitForConditionAndReturn(final String label, final P input, final Function<P, T> function) {
+		WaitEngine waitEngine = getWaitEngine();
+		long timeout = waitEngine.enter(label);
 		try {
-			T returnObject = function.apply(input);
+			FluentWait<P> wait = new FluentWait<P>(input).withTimeout(timeout, TimeUnit.MILLISECONDS)
+					.pollingEvery(500, TimeUnit.MILLISECONDS);
 
-			if (null != returnObject) {
-				return returnObject;
+			// Check whether the specified function, as applied to the
+			// specified input, initially returns a non-null, non-false value.
+			// If this is true, return that value immediately.
+			try {
+				T returnObject = function.apply(input);
+
+				if (null != returnObject) {
+					return returnObject;
+				}
+			} catch (Exception e) {
 			}
-		} catch (Exception e) {
-		}
 
-		// Wait until the specified function, as applied to the specified,
-		// input, returns a non-null, non-false value.
-		return wait.until(function);
+			// Wait until the specified function, as applied to the specified,
+			// input, returns a non-null, non-false value.
+			return wait.until(function);
+		} catch (RuntimeException e) {
+			throw waitEngine.failed(e);
+		} finally {
+			waitEngine.exit();
+		}
 	}
 
 	/**
@@ -807,6 +1331,14 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 	 *             method.
 	 */
 	protected <P> void waitForCondition(final P input, final Predicate<P> condition) {
+		waitForCondition("condition on " + describe(input), input, condition);
+	}
+
+	/**
+	 * Waits for the specified predicate as applied to the specified input to
+	 * return true, as a step with the specified label if no step is running.
+	 */
+	private <P> void waitForCondition(final String label, final P input, final Predicate<P> condition) {
 		// Create a function which takes the specified input and returns
 		// the boolean result of applying the specified predicate to the
 		// specified input.
@@ -817,7 +1349,25 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 		};
 
 		// Wait for the created function to return a value of true.
-		waitForConditionAndReturn(input, function);
+		waitForConditionAndReturn(label, input, function);
+	}
+
+	/**
+	 * Describes the input of a wait without anything which changes between
+	 * sessions, such as the session id in a driver's or element's toString().
+	 */
+	private static String describe(Object input) {
+		if (input instanceof WebDriver) {
+			return "page";
+		}
+		if (input instanceof WebElement) {
+			// A relocatable element describes itself by its locator
+			return input instanceof WrapsElement ? input.toString() : "element";
+		}
+		if (null == input || input instanceof CharSequence || input instanceof Number || input instanceof Enum) {
+			return String.valueOf(input);
+		}
+		return input.getClass().getSimpleName();
 	}
 
 	/**
@@ -843,37 +1393,29 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 	 */
 	protected <T> T waitForElementConditionAndReturn(final SearchContext searchContext, final By elementLocator,
 			final Function<WebElement, T> function) {
-		final WebElement outerElement = waitForLoadedIn(searchContext, elementLocator);
-
-		Function<SearchContext, T> elementCondFunc = new Function<SearchContext, T>() {
-			private WebElement element = outerElement;
-
-			public T apply(SearchContext searchContext) {
-
-				try {
-					T returnObject = function.apply(element);
-
-					// Check if the returned object is non-null.
-					if (null != returnObject) {
-						return returnObject;
+		WaitEngine waitEngine = getWaitEngine();
+		waitEngine.enter(String.valueOf(elementLocator));
+		try {
+			// The element finds itself again if it goes stale, see
+			// RelocatableElement.
+			final WebElement element = waitForLoadedIn(searchContext, elementLocator);
+
+			Function<SearchContext, T> elementCondFunc = new Function<SearchContext, T>() {
+				public T apply(SearchContext searchContext) {
+					try {
+						return function.apply(element);
+					}
+					// Still stale, or not back in the DOM yet: poll again.
+					catch (Exception e) {
+						return null;
 					}
 				}
-				// Reference to the element is corrupted/incorrect (likely due
-				// to
-				// a change in the DOM) and therefore needs to be updated.
-				catch (StaleElementReferenceException e) {
-					element = waitForLoadedIn(searchContext, elementLocator);
-				} catch (NoSuchElementException e) {
-					element = waitForLoadedIn(searchContext, elementLocator);
-				} catch (Exception e) {
-					return null;
-				}
-
-				return null;
-			}
-		};
+			};
 
-		return waitForConditionAndReturn(searchContext, elementCondFunc);
+			return waitForConditionAndReturn(searchContext, elementCondFunc);
+		} finally {
+			waitEngine.exit();
+		}
 	}
 
 	/**
@@ -894,31 +1436,29 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 	 */
 	protected void waitForElementCondition(final SearchContext searchContext, final By elementLocator,
 			final Predicate<WebElement> predicate) {
-		final WebElement outerElement = waitForLoadedIn(searchContext, elementLocator);
-
-		Predicate<SearchContext> condition = new Predicate<SearchContext>() {
-			private WebElement element = outerElement;
-
-			public boolean apply(SearchContext searchContext) {
-				try {
-					return predicate.apply(element);
-				}
-				// Reference to the element is corrupted/incorrect (likely due
-				// to
-				// a change in the DOM) and therefore needs to be updated.
-				catch (StaleElementReferenceException e) {
-					element = waitForLoadedIn(searchContext, elementLocator);
-					return false;
-				} catch (NoSuchElementException e) {
-					element = waitForLoadedIn(searchContext, elementLocator);
-					return false;
-				} catch (Exception e) {
-					return false;
+		WaitEngine waitEngine = getWaitEngine();
+		waitEngine.enter(String.valueOf(elementLocator));
+		try {
+			// The element finds itself again if it goes stale, see
+			// RelocatableElement.
+			final WebElement element = waitForLoadedIn(searchContext, elementLocator);
+
+			Predicate<SearchContext> condition = new Predicate<SearchContext>() {
+				public boolean apply(SearchContext searchContext) {
+					try {
+						return predicate.apply(element);
+					}
+					// Still stale, or not back in the DOM yet: poll again.
+					catch (Exception e) {
+						return false;
+					}
 				}
-			}
-		};
+			};
 
-		waitForCondition(searchContext, condition);
+			waitForCondition(searchContext, condition);
+		} finally {
+			waitEngine.exit();
+		}
 	}
 
 	/**
@@ -981,12 +1521,16 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 	 *            The search context in which the web element is found.
 	 * @param locator
 	 *            The locator of the web element.
-	 * @return The loaded web element.
+	 * @return The loaded web element, as a {@link RelocatableElement} handle.
 	 * @throws TimeoutException
 	 *             If the element located by the specified locator is not found
 	 *             within 15 seconds.
 	 */
 	protected WebElement waitForLoadedIn(final SearchContext searchContext, final By locator) {
+		if (canObserve(searchContext, locator)) {
+			return RelocatableElement.wrap(searchContext, locator, (WebElement) observe(searchContext, locator, true));
+		}
+
 		Function<SearchContext, WebElement> function = new Function<SearchContext, WebElement>() {
 			public WebElement apply(SearchContext context) {
 				try {
@@ -997,7 +1541,68 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 			}
 		};
 
-		return waitForConditionAndReturn(searchContext, function);
+		return RelocatableElement.wrap(searchContext, locator,
+				waitForConditionAndReturn("load " + locator, searchContext, function));
+	}
+
+	/**
+	 * Checks whether a load or unload wait for the specified locator can be
+	 * performed with a MutationObserver.
+	 * 
+	 * @param searchContext
+	 *            The search context in which the web element is found.
+	 * @param locator
+	 *            The locator of the web element.
+	 * @return True if the wait mode is EVENT and the observer script can be
+	 *         used. False otherwise.
+	 */
+	private boolean canObserve(SearchContext searchContext, By locator) {
+		return waitMode == WaitMode.EVENT && getDriver() instanceof JavascriptExecutor
+				&& (searchContext instanceof WebDriver || searchContext instanceof WebElement)
+				&& ScriptLocator.isSupported(locator);
+	}
+
+	/**
+	 * Waits inside the browser, using a MutationObserver, for the specified
+	 * locator to match or to stop matching. Throws a TimeoutException if this
+	 * does not happen within the time left in the current step.
+	 * 
+	 * @param searchContext
+	 *            The search context in which the web element is found.
+	 * @param locator
+	 *            The locator of the web element.
+	 * @param present
+	 *            True to wait for the element to be loaded. False to wait for
+	 *            it to be unloaded.
+	 * @return The loaded element, or true when waiting for it to be unloaded.
+	 * @throws TimeoutException
+	 *             If the element is not loaded or unloaded in time.
+	 */
+	private Object observe(SearchContext searchContext, By locator, boolean present) {
+		WaitEngine waitEngine = getWaitEngine();
+		long timeout = waitEngine.enter((present ? "load " : "unload ") + locator);
+		try {
+			WebDriver driver = getDriver();
+			Object root = searchContext instanceof WebElement ? searchContext : null;
+			Object result;
+			long scriptTimeout = ScriptTimeouts.atLeast(driver, timeout + 5000);
+			try {
+				result = ((JavascriptExecutor) driver).executeAsyncScript(OBSERVE_SCRIPT,
+						ScriptLocator.toScriptArgument(locator), root, present, timeout);
+			} finally {
+				ScriptTimeouts.restore(driver, scriptTimeout);
+			}
+
+			if (null == result) {
+				throw new TimeoutException("Timed out after " + timeout + " milliseconds waiting for " + locator
+						+ (present ? " to be loaded" : " to be unloaded"));
+			}
+			return result;
+		} catch (RuntimeException e) {
+			throw waitEngine.failed(e);
+		} finally {
+			waitEngine.exit();
+		}
 	}
 
 	/**
@@ -1007,7 +1612,7 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 	 * 
 	 * @param locator
 	 *            The locator of the web element.
-	 * @return The loaded web element.
+	 * @return The loaded web element, as a {@link RelocatableElement} handle.
 	 * @throws TimeoutException
 	 *             If the element located by the specified locator is not found
 	 *             within 15 seconds.
@@ -1016,6 +1621,140 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 		return waitForLoadedIn(getDriver(), locator);
 	}
 
+	/**
+	 * Waits for the web elements, which are located by each of the specified
+	 * locators, to all be loaded within the specified search context. All of
+	 * the locators are checked together on every poll, so the wait is bounded
+	 * by the slowest element rather than the sum of the elements. Throws a
+	 * TimeoutException if any of the elements is not found within 15 seconds
+	 * of calling this method.
+	 * 
+	 * @param searchContext
+	 *            The search context in which the web elements are found.
+	 * @param locators
+	 *            The locators of the web elements.
+	 * @return The loaded web elements, in the same order as the locators.
+	 * @throws TimeoutException
+	 *             If any of the elements is not found within 15 seconds.
+	 */
+	protected List<WebElement> waitForAllIn(final SearchContext searchContext, final By... locators) {
+		// A locator given twice is found once
+		final By[] distinct = new LinkedHashSet<By>(Arrays.asList(locators)).toArray(new By[0]);
+		Function<SearchContext, Map<By, WebElement>> function = new Function<SearchContext, Map<By, WebElement>>() {
+			public Map<By, WebElement> apply(SearchContext context) {
+				Map<By, WebElement> found = resolveAll(context, distinct);
+				return found.size() == distinct.length ? found : null;
+			}
+		};
+
+		Map<By, WebElement> found = waitForConditionAndReturn("load all of " + Arrays.toString(locators),
+				searchContext, function);
+		List<WebElement> elements = new ArrayList<WebElement>();
+		for (By locator : locators) {
+			elements.add(found.get(locator));
+		}
+		return elements;
+	}
+
+	/**
+	 * Waits for the web elements, which are located by each of the specified
+	 * locators, to all be loaded. Throws a TimeoutException if any of the
+	 * elements is not found within 15 seconds of calling this method.
+	 * 
+	 * @param locators
+	 *            The locators of the web elements.
+	 * @return The loaded web elements, in the same order as the locators.
+	 * @throws TimeoutException
+	 *             If any of the elements is not found within 15 seconds.
+	 */
+	protected List<WebElement> waitForAll(final By... locators) {
+		return waitForAllIn(getDriver(), locators);
+	}
+
+	/**
+	 * Waits for at least one of the web elements, which are located by the
+	 * specified locators, to be loaded within the specified search context.
+	 * Throws a TimeoutException if none of the elements is found within 15
+	 * seconds of calling this method.
+	 * 
+	 * @param searchContext
+	 *            The search context in which the web elements are found.
+	 * @param locators
+	 *            The locators of the web elements.
+	 * @return Every element which was loaded when the wait finished, keyed by
+	 *         its locator.
+	 * @throws TimeoutException
+	 *             If none of the elements is found within 15 seconds.
+	 */
+	protected Map<By, WebElement> waitForAnyIn(final SearchContext searchContext, final By... locators) {
+		Function<SearchContext, Map<By, WebElement>> function = new Function<SearchContext, Map<By, WebElement>>() {
+			public Map<By, WebElement> apply(SearchContext context) {
+				Map<By, WebElement> found = resolveAll(context, locators);
+				return found.isEmpty() ? null : found;
+			}
+		};
+
+		return waitForConditionAndReturn("load any of " + Arrays.toString(locators), searchContext, function);
+	}
+
+	/**
+	 * Waits for at least one of the web elements, which are located by the
+	 * specified locators, to be loaded. Throws a TimeoutException if none of
+	 * the elements is found within 15 seconds of calling this method.
+	 * 
+	 * @param locators
+	 *            The locators of the web elements.
+	 * @return Every element which was loaded when the wait finished, keyed by
+	 *         its locator.
+	 * @throws TimeoutException
+	 *             If none of the elements is found within 15 seconds.
+	 */
+	protected Map<By, WebElement> waitForAny(final By... locators) {
+		return waitForAnyIn(getDriver(), locators);
+	}
+
+	/**
+	 * Finds the first element for each of the specified locators. Where every
+	 * locator can be evaluated in the browser this takes a single script call;
+	 * otherwise each locator is looked up through the search context.
+	 * 
+	 * @param searchContext
+	 *            The search context in which the web elements are found.
+	 * @param locators
+	 *            The locators of the web elements.
+	 * @return The elements which were found, keyed by their locator.
+	 */
+	private Map<By, WebElement> resolveAll(SearchContext searchContext, By[] locators) {
+		Map<By, WebElement> found = new LinkedHashMap<By, WebElement>();
+		List<Map<String, String>> arguments = new ArrayList<Map<String, String>>();
+		for (By locator : locators) {
+			arguments.add(ScriptLocator.toScriptArgument(locator));
+		}
+
+		boolean scriptable = getDriver() instanceof JavascriptExecutor && !arguments.contains(null)
+				&& (searchContext instanceof WebDriver || searchContext instanceof WebElement);
+
+		if (scriptable) {
+			Object root = searchContext instanceof WebElement ? searchContext : null;
+			List<?> elements = (List<?>) ((JavascriptExecutor) getDriver()).executeScript(RESOLVE_ALL_SCRIPT,
+					arguments, root);
+			for (int i = 0; i < locators.length; i++) {
+				if (elements.get(i) instanceof WebElement) {
+					found.put(locators[i], (WebElement) elements.get(i));
+				}
+			}
+		} else {
+			for (By locator : locators) {
+				List<WebElement> elements = searchContext.findElements(locator);
+				if (!elements.isEmpty()) {
+					found.put(locator, elements.get(0));
+				}
+			}
+		}
+
+		return found;
+	}
+
 	/**
 	 * Waits for the web element, which is located by the specified locator, to
 	 * be unloaded within the specified search context. Throws a
@@ -1026,12 +1765,16 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 	 *            The search context in which the web element is found.
 	 * @param locator
 	 *            The locator of the web element.
-	 * @return The loaded web element.
+	 * @return The loaded web element, as a {@link RelocatableElement} handle.
 	 * @throws TimeoutException
 	 *             If the element located by the specified locator is not found
 	 *             within 15 seconds.
 	 */
 	protected void waitForUnloadedIn(final SearchContext searchContext, final By locator) {
+		if (canObserve(searchContext, locator)) {
+			observe(searchContext, locator, false);
+			return;
+		}
 
 		Predicate<SearchContext> condition = new Predicate<SearchContext>() {
 			public boolean apply(SearchContext driver) {
@@ -1044,7 +1787,7 @@ public abstract class IrisAbstractSelenium extends IrisSeleniumBase {
 			}
 		};
 
-		waitForCondition(searchContext, condition);
+		waitForCondition("unload " + locator, searchContext, condition);
 	}
 
 	/**
@@ -0,0 +1,281 @@
+package iris.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Records a sequence of UI steps (clicks and text entry) and runs
+ *         them. Consecutive steps which can be performed by the DOM are sent to
+ *         the browser as a single asynchronous script, in which each step waits
+ *         in the browser for its element to be enabled before acting. Steps
+ *         which need native events, or whose locators cannot be evaluated in
+ *         the browser, are run one at a time through the normal wait helpers.
+ *
+ *         Obtain an instance from {@link IrisAbstractSelenium#flow}.
+ *
+ */
+public class IrisFlow {
+
+	private static final Logger logger = LoggerFactory.getLogger(IrisFlow.class);
+
+	/**
+	 * Script which runs a batch of steps. Arguments: the steps, the root node
+	 * (or null for the document), the per-step timeout and the time allowed
+	 * for the whole batch, both in milliseconds, and the async callback. Calls
+	 * back with null on success, or with the index of the failing step and a
+	 * message.
+	 */
+	private static final String BATCH_SCRIPT = ScriptLocator.FINDER
+			+ "var steps = arguments[0], root = arguments[1], timeout = arguments[2], budget = arguments[3];"
+			+ "var done = arguments[arguments.length - 1];"
+			+ "function enabled(e) {"
+			+ "  var style = window.getComputedStyle(e);"
+			+ "  return !e.disabled && e.getClientRects().length > 0 && style.visibility !== 'hidden'"
+			+ "    && String(e.getAttribute('class') || '').indexOf('disabled') < 0;"
+			+ "}"
+			+ "function fire(e, type) { e.dispatchEvent(new Event(type, { bubbles: true })); }"
+			+ "function key(e, type, ch) {"
+			+ "  return e.dispatchEvent(new KeyboardEvent(type, { key: ch, bubbles: true, cancelable: true }));"
+			+ "}"
+			+ "function act(step, e) {"
+			+ "  if (step.action === 'click') { e.click(); return; }"
+			+ "  e.focus();"
+			+ "  e.value = ''; fire(e, 'input');"
+			+ "  var text = step.text === null ? '' : String(step.text);"
+			+ "  for (var i = 0; i < text.length; i++) {"
+			+ "    var ch = text.charAt(i);"
+			+ "    if (key(e, 'keydown', ch) && key(e, 'keypress', ch)) { e.value += ch; fire(e, 'input'); }"
+			+ "    key(e, 'keyup', ch);"
+			+ "  }"
+			+ "  fire(e, 'change'); e.blur();"
+			+ "}"
+			+ "var index = 0, begun = Date.now(), started = begun;"
+			+ "function next() {"
+			+ "  if (index >= steps.length) { done(null); return; }"
+			+ "  var step = steps[index];"
+			+ "  var matches = irisFind(root, step.locator);"
+			+ "  if (matches.length > 0 && enabled(matches[0])) {"
+			+ "    try { act(step, matches[0]); } catch (err) { done({ index: index, message: String(err) }); return; }"
+			+ "    index++; started = Date.now(); setTimeout(next, 0); return;"
+			+ "  }"
+			+ "  var now = Date.now();"
+			+ "  if (now - begun > budget || now - started > timeout) {"
+			+ "    done({ index: index, message: (matches.length > 0 ? 'element not enabled' : 'element not found')"
+			+ "      + ' after ' + (now - started) + ' ms' + (now - begun > budget ? ', step deadline reached' : '') });"
+			+ "    return;"
+			+ "  }"
+			+ "  setTimeout(next, 50);"
+			+ "}"
+			+ "next();";
+
+	/** The type of action a step performs. */
+	private enum Action {
+		CLICK, SET_TEXT
+	}
+
+	/** One recorded step of the flow. */
+	private static final class Step {
+		private final Action action;
+		private final By locator;
+		private final String text;
+		private final boolean nativeEvents;
+
+		private Step(Action action, By locator, String text, boolean nativeEvents) {
+			this.action = action;
+			this.locator = locator;
+			this.text = text;
+			this.nativeEvents = nativeEvents;
+		}
+
+		@Override
+		public String toString() {
+			return (action == Action.CLICK ? "click " : "set text of ") + locator;
+		}
+	}
+
+	/** The test which owns this flow and provides the fallback helpers. */
+	private final IrisAbstractSelenium selenium;
+
+	/** The search context in which the elements are to be found. */
+	private final SearchContext searchContext;
+
+	/** The recorded steps, in order. */
+	private final List<Step> steps = new ArrayList<Step>();
+
+	IrisFlow(IrisAbstractSelenium selenium, SearchContext searchContext) {
+		this.selenium = selenium;
+		this.searchContext = searchContext;
+	}
+
+	/**
+	 * Records a step which waits for the element located by the specified
+	 * locator to be click-able and then clicks it.
+	 *
+	 * @param locator
+	 *            The locator of the element.
+	 * @return This flow.
+	 */
+	public IrisFlow click(By locator) {
+		steps.add(new Step(Action.CLICK, locator, null, false));
+		return this;
+	}
+
+	/**
+	 * Records a step which waits for the text field located by the specified
+	 * locator to be enabled, clears it and then sets its text. In a batch the
+	 * text is typed one character at a time, with keydown, keypress, input
+	 * and keyup events for each, followed by change and blur; the events are
+	 * synthetic, so use {@link #nativeSetText} for fields which only accept
+	 * trusted key events.
+	 *
+	 * @param locator
+	 *            The locator of the text field.
+	 * @param text
+	 *            The text to set.
+	 * @return This flow.
+	 */
+	public IrisFlow setText(By locator, String text) {
+		steps.add(new Step(Action.SET_TEXT, locator, text, false));
+		return this;
+	}
+
+	/**
+	 * Records a click which is always performed through the WebDriver, for
+	 * elements whose handlers only respond to native mouse events.
+	 *
+	 * @param locator
+	 *            The locator of the element.
+	 * @return This flow.
+	 */
+	public IrisFlow nativeClick(By locator) {
+		steps.add(new Step(Action.CLICK, locator, null, true));
+		return this;
+	}
+
+	/**
+	 * Records text entry which is always performed through the WebDriver, for
+	 * fields whose handlers only respond to native key events.
+	 *
+	 * @param locator
+	 *            The locator of the text field.
+	 * @param text
+	 *            The text to set.
+	 * @return This flow.
+	 */
+	public IrisFlow nativeSetText(By locator, String text) {
+		steps.add(new Step(Action.SET_TEXT, locator, text, true));
+		return this;
+	}
+
+	/**
+	 * Runs the recorded steps in order. Throws a TimeoutException if any step
+	 * cannot be completed within the step timeout of that step starting, or
+	 * if an enclosing step started with
+	 * {@link IrisAbstractSelenium#beginStep} runs out of time.
+	 *
+	 * @throws TimeoutException
+	 *             If a step cannot be completed in time.
+	 */
+	public void run() {
+		List<Step> batch = new ArrayList<Step>();
+
+		for (Step step : steps) {
+			if (canBatch(step)) {
+				batch.add(step);
+			} else {
+				runBatch(batch);
+				batch.clear();
+				runSingle(step);
+			}
+		}
+
+		runBatch(batch);
+	}
+
+	/**
+	 * Checks whether the specified step can be run inside the browser.
+	 */
+	private boolean canBatch(Step step) {
+		return !step.nativeEvents && selenium.getDriver() instanceof JavascriptExecutor
+				&& (searchContext instanceof WebDriver || searchContext instanceof WebElement)
+				&& ScriptLocator.isSupported(step.locator);
+	}
+
+	/**
+	 * Runs a single step through the wait helpers.
+	 */
+	private void runSingle(Step step) {
+		if (step.action == Action.CLICK) {
+			selenium.waitForThenClick(searchContext, step.locator);
+		} else {
+			selenium.waitForClearTextThenSet(searchContext, step.locator, step.text);
+		}
+	}
+
+	/**
+	 * Runs the specified steps in one script call. A batch of one step gains
+	 * nothing from the script and is run through the wait helpers instead.
+	 */
+	private void runBatch(List<Step> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		if (batch.size() == 1) {
+			runSingle(batch.get(0));
+			return;
+		}
+
+		List<Map<String, Object>> arguments = new ArrayList<Map<String, Object>>();
+		for (Step step : batch) {
+			Map<String, Object> argument = new HashMap<String, Object>();
+			argument.put("action", step.action == Action.CLICK ? "click" : "text");
+			argument.put("locator", ScriptLocator.toScriptArgument(step.locator));
+			argument.put("text", step.text);
+			arguments.add(argument);
+		}
+
+		// The batch draws on the current step if one is running; otherwise it
+		// is allowed the usual step timeout for each of its steps.
+		WaitEngine waitEngine = selenium.getWaitEngine();
+		long stepTimeout = waitEngine.getStepTimeoutMillis();
+		long timeout = waitEngine.enter("flow of " + batch.size() + " step(s)", stepTimeout * batch.size());
+		try {
+			WebDriver driver = selenium.getDriver();
+			logger.debug("Running {} flow step(s) in a single script call", batch.size());
+			Object root = searchContext instanceof WebElement ? searchContext : null;
+			Object result;
+			long scriptTimeout = ScriptTimeouts.atLeast(driver, timeout + 5000);
+			try {
+				// The whole batch keeps to the step's deadline; each of its
+				// steps is also capped at the step timeout
+				result = ((JavascriptExecutor) driver).executeAsyncScript(BATCH_SCRIPT, arguments, root,
+						Math.min(stepTimeout, timeout), timeout);
+			} finally {
+				ScriptTimeouts.restore(driver, scriptTimeout);
+			}
+
+			if (result instanceof Map) {
+				Map<?, ?> failure = (Map<?, ?>) result;
+				int index = ((Number) failure.get("index")).intValue();
+				throw new TimeoutException("Flow step '" + batch.get(index) + "' failed: " + failure.get("message"));
+			}
+		} catch (RuntimeException e) {
+			throw waitEngine.failed(e);
+		} finally {
+			waitEngine.exit();
+		}
+	}
+}
@@ -1,7 +1,7 @@
 package iris.core;
 
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.Map;
@@ -11,7 +11,7 @@ import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Before;
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriverService;
+import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.firefox.FirefoxDriver;
 import org.openqa.selenium.ie.InternetExplorerDriver;
 import org.openqa.selenium.remote.DesiredCapabilities;
@@ -33,6 +33,9 @@ public abstract class IrisSeleniumBase {
 	/** Selenium WebDriver object. */
 	private WebDriver driver;
 
+	/** Sessions bound to worker threads, see {@link #bindSession}. */
+	private final ThreadLocal<WebDriver> boundDriver = new ThreadLocal<WebDriver>();
+
 	/** Time out to wait for an operation on the web driver to complete. */
 	private int timeout;
 
@@ -48,6 +51,9 @@ public abstract class IrisSeleniumBase {
 	/** The browser as defined by the Enum {@link Browser}. */
 	private Browser browser;
 
+	/** Whether the browser was chosen by {@link BrowserMatrix}. */
+	private boolean browserFixed;
+
 	/** Internal structure to hold input data. */
 	private Map<Object, Object> data = null;
 
@@ -56,7 +62,8 @@ public abstract class IrisSeleniumBase {
 
 	private String gridURL = "http://10.252.36.52:4444/wd/hub";
 
-	private static ChromeDriverService service;
+	/** Whether the session is kept open after the test, for a retry. */
+	private boolean retainSession;
 
 	/**
 	 * Default Constructor - use VM arg to either go local firefox (default) or
@@ -87,12 +94,30 @@ public abstract class IrisSeleniumBase {
 	}
 
 	/**
-	 * Get the WebDriver.
+	 * Get the WebDriver. On a thread with a bound session this is the bound
+	 * session, otherwise it is the test's own driver.
 	 * 
 	 * @return The current web driver.
 	 */
 	protected WebDriver getDriver() {
-		return driver;
+		WebDriver bound = boundDriver.get();
+		return null != bound ? bound : driver;
+	}
+
+	/**
+	 * Binds a browser session to the current thread, so that
+	 * {@link #getDriver()} (and so every helper) uses it on this thread. Used
+	 * by worker threads which each drive their own session.
+	 * 
+	 * @param session
+	 *            The session, or null to unbind.
+	 */
+	protected void bindSession(final WebDriver session) {
+		if (null == session) {
+			boundDriver.remove();
+		} else {
+			boundDriver.set(session);
+		}
 	}
 
 	/**
@@ -145,9 +170,12 @@ public abstract class IrisSeleniumBase {
 	}
 
 	private void outputLogStatus() {
-		System.out.format("Logging levels.  Error:%b, Warn:%b, Info:%b, Debug:%b, Trace:%b\n", baseLog.isErrorEnabled(),
-				baseLog.isWarnEnabled(), baseLog.isInfoEnabled(), baseLog.isDebugEnabled(), baseLog.isTraceEnabled());
-
+		if (EventStream.isEnabled()) {
+			EventStream.emit("log_levels", baseLog.getName(), -1, null,
+					"error=" + baseLog.isErrorEnabled() + " warn=" + baseLog.isWarnEnabled() + " info="
+							+ baseLog.isInfoEnabled() + " debug=" + baseLog.isDebugEnabled() + " trace="
+							+ baseLog.isTraceEnabled());
+		}
 	}
 
 	/**
@@ -163,61 +191,191 @@ public abstract class IrisSeleniumBase {
 				System.setProperty(browser.toString(), driverPath);
 			}
 			// If you comment out the line below then it forces it to run in the
-			browser = Browser.CHROME_REMOTE;
-
-			switch (browser) {
-			case CHROME:
-				// Locally
-				service = new ChromeDriverService.Builder()
-						.usingDriverExecutable(new File("C:\\Selenium\\chromedriver.exe")).usingAnyFreePort().build();
-				service.start();
-				driver = new RemoteWebDriver(service.getUrl(), DesiredCapabilities.chrome());
-				break;
-			case CHROME_REMOTE:
-				// For the linux box
-				System.setProperty("webdriver.chrome.driver", "D:\\Selenium\\chromedriver.exe");
-				// For a local CHROME_REMOTE use this:
-				// System.setProperty("webdriver.chrome.driver",
-				// "C:\\Users\\vickery_b-r\\Downloads\\chromedriver.exe");
-				driver = new RemoteWebDriver(new URL(gridURL), DesiredCapabilities.chrome());
-				break;
-			case FIREFOX:
-				driver = new FirefoxDriver();
-				break;
-			case IE:
-				driver = new InternetExplorerDriver();
-				break;
-			default:
-				throw new Exception("Browser type not supported");
+			if (!browserFixed) {
+				browser = Browser.CHROME_REMOTE;
 			}
 
-			data = new Properties();
+			if (retainSession && isSessionAlive()) {
+				// Warm session kept from a failed attempt, see RetryRule.
+				baseLog.info("Reusing warm browser session");
+				driver.manage().deleteAllCookies();
+			} else {
+				driver = openSession();
+			}
+
+			data = loadData(getClass());
+
+			driver.manage().timeouts().implicitlyWait(timeout, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			baseLog.error(e.getMessage());
+		}
+		baseLog.info("Browser open");
+	}
+
+	/**
+	 * Loads the data file of a test class: a properties file with the same
+	 * name as the class, in the data package below the class's package.
+	 * 
+	 * @param testClass
+	 *            The test class.
+	 * @return The data, empty if the class has no data file.
+	 * @throws IOException
+	 *             If the data file cannot be read.
+	 */
+	public static Properties loadData(final Class<?> testClass) throws IOException {
+		Logger logger = LoggerFactory.getLogger(IrisSeleniumBase.class);
+		Properties data = new Properties();
 
-			String propFileName = this.getClass().getSimpleName() + ".txt";
-			String propPackage = this.getClass().getPackage().getName() + ".data";
-			String fn = "/" + propPackage.replace(".", "/") + '/' + propFileName;
+		String propFileName = testClass.getSimpleName() + ".txt";
+		String propPackage = testClass.getPackage().getName() + ".data";
+		String fn = "/" + propPackage.replace(".", "/") + '/' + propFileName;
 
-			baseLog.info("If data file exists, then it will be loaded.  Looking for file: " + fn);
+		logger.info("If data file exists, then it will be loaded.  Looking for file: {}", fn);
 
-			URL url = this.getClass().getResource(fn);
-			if (null != url) {
-				InputStream inputStream = url.openStream();
+		URL url = testClass.getResource(fn);
+		if (null != url) {
+			InputStream inputStream = url.openStream();
 
-				if (inputStream != null) {
-					((Properties) data).load(inputStream);
-					baseLog.info("Found data file, loaded " + data.size() + " item(s).");
-				} else {
-					throw new FileNotFoundException("property file '" + propFileName + "' not found in the classpath");
+			if (inputStream != null) {
+				try {
+					data.load(inputStream);
+				} finally {
+					inputStream.close();
 				}
+				logger.info("Found data file, loaded {} item(s).", data.size());
 			} else {
-				baseLog.info("No datafile found:" + fn);
+				throw new FileNotFoundException("property file '" + propFileName + "' not found in the classpath");
 			}
+		} else {
+			logger.info("No datafile found:{}", fn);
+		}
+		return data;
+	}
 
-			driver.manage().timeouts().implicitlyWait(timeout, TimeUnit.SECONDS);
+	/**
+	 * Opens a new browser session for the browser chosen by the constructor.
+	 * Local Chrome sessions share one driver service, see
+	 * {@link DriverServices}. The test's own session is opened by
+	 * {@link #before()}; worker threads can open more. The browser runs
+	 * headless if the -Dheadless VM arg is true.
+	 * 
+	 * @return The new session.
+	 * @throws Exception
+	 *             when the driver cannot be created.
+	 */
+	protected WebDriver openSession() throws Exception {
+		return openSession(Boolean.getBoolean("headless"));
+	}
+
+	/**
+	 * Opens a new browser session for the browser chosen by the constructor.
+	 * 
+	 * @param headless
+	 *            True to run the browser without a window. Only Chrome
+	 *            supports this; other browsers open a window regardless.
+	 * @return The new session.
+	 * @throws Exception
+	 *             when the driver cannot be created.
+	 */
+	protected WebDriver openSession(final boolean headless) throws Exception {
+		if (CommandExecutors.isReplaying()) {
+			// Served from a recording, no browser is started
+			return new RemoteWebDriver(CommandExecutors.forUrl(null), new DesiredCapabilities());
+		}
+		switch (browser) {
+		case CHROME:
+			// Locally, on the chromedriver shared by the JVM
+			return DriverServices.newChromeSession(chromeCapabilities(headless));
+		case CHROME_REMOTE:
+			// For the linux box
+			System.setProperty("webdriver.chrome.driver", "D:\\Selenium\\chromedriver.exe");
+			// For a local CHROME_REMOTE use this:
+			// System.setProperty("webdriver.chrome.driver",
+			// "C:\\Users\\vickery_b-r\\Downloads\\chromedriver.exe");
+			return new RemoteWebDriver(CommandExecutors.forUrl(new URL(gridURL)), chromeCapabilities(headless));
+		case FIREFOX_REMOTE:
+			if (headless) {
+				baseLog.warn("Headless sessions are not supported by {}, opening a window", browser.name());
+			}
+			return new RemoteWebDriver(CommandExecutors.forUrl(new URL(gridURL)), DesiredCapabilities.firefox());
+		case FIREFOX:
+			if (headless) {
+				baseLog.warn("Headless sessions are not supported by {}, opening a window", browser.name());
+			}
+			return new FirefoxDriver();
+		case IE:
+			if (headless) {
+				baseLog.warn("Headless sessions are not supported by {}, opening a window", browser.name());
+			}
+			return new InternetExplorerDriver();
+		default:
+			throw new Exception("Browser type not supported");
+		}
+	}
+
+	/**
+	 * Get the capabilities of a Chrome session.
+	 */
+	private static DesiredCapabilities chromeCapabilities(final boolean headless) {
+		DesiredCapabilities capabilities = DesiredCapabilities.chrome();
+		if (headless) {
+			ChromeOptions options = new ChromeOptions();
+			options.addArguments("--headless", "--window-size=1920,1080");
+			capabilities.setCapability(ChromeOptions.CAPABILITY, options);
+		}
+		return capabilities;
+	}
+
+	/**
+	 * Checks whether the current driver still has a usable session.
+	 * 
+	 * @return True if the browser responds. False otherwise.
+	 */
+	private boolean isSessionAlive() {
+		if (null == driver) {
+			return false;
+		}
+		try {
+			driver.getWindowHandle();
+			return true;
+		} catch (Exception e) {
+			baseLog.info("Kept browser session is no longer usable: {}", e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Set whether {@link #after()} keeps the browser session open so that a
+	 * retry of the test can reuse it, see {@link RetryRule}.
+	 * 
+	 * @param retainSession
+	 *            True to keep the session open after the test.
+	 */
+	protected void setRetainSession(final boolean retainSession) {
+		this.retainSession = retainSession;
+	}
+
+	/**
+	 * @return Whether the browser session is kept open after the test.
+	 */
+	protected boolean isRetainSession() {
+		return retainSession;
+	}
+
+	/**
+	 * Closes a browser session kept open by {@link #setRetainSession}. Does
+	 * nothing if the session has already been closed.
+	 */
+	protected void releaseSession() {
+		retainSession = false;
+		try {
+			if (null != driver) {
+				driver.quit();
+			}
 		} catch (Exception e) {
 			baseLog.error(e.getMessage());
 		}
-		baseLog.info("Browser open");
+		driver = null;
 	}
 
 	public String getBaseURL() {
@@ -238,16 +396,18 @@ public abstract class IrisSeleniumBase {
 	public void after() throws Exception {
 
 		baseLog.info("============ Test Finished ============");
+		if (retainSession) {
+			baseLog.info("Keeping browser session open for a retry");
+			return;
+		}
 		try {
-			if (browser == Browser.CHROME) {
-				service.stop();
-			}
 			if (null != driver) {
 				driver.quit();
 			}
 		} catch (Exception e) {
 			baseLog.error(e.getMessage());
 		}
+		driver = null;
 	}
 
 	/**
@@ -257,4 +417,16 @@ public abstract class IrisSeleniumBase {
 		return browser;
 	}
 
+	/**
+	 * Sets the browser the test runs on, overriding the VM args. Used by
+	 * {@link BrowserMatrix}.
+	 * 
+	 * @param browser
+	 *            The browser.
+	 */
+	void setBrowser(final Browser browser) {
+		this.browser = browser;
+		this.browserFixed = true;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,200 @@
+package iris.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Collects latencies and errors per named step from many threads at
+ *         once. Each step keeps a histogram rather than every sample, exact
+ *         below 128ms and within 2% above, so a long load run uses a fixed
+ *         amount of memory and recording a sample never takes a lock.
+ *
+ */
+public class LatencyStats {
+
+	private static final Logger logger = LoggerFactory.getLogger(LatencyStats.class);
+
+	/** Values below this are counted exactly. */
+	private static final int LINEAR = 128;
+
+	/** Buckets per power of two above {@link #LINEAR}. */
+	private static final int SUB_BUCKETS = 64;
+
+	/** Number of buckets, covering values up to 2^40 ms. */
+	private static final int BUCKETS = LINEAR + (40 - 7) * SUB_BUCKETS;
+
+	/** Latencies of one step. */
+	public static final class Step {
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final AtomicLong samples = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		private void record(long millis, boolean passed) {
+			long value = Math.max(0, millis);
+			counts.incrementAndGet(bucket(value));
+			samples.incrementAndGet();
+			if (!passed) {
+				errors.incrementAndGet();
+			}
+			long current;
+			while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+				// Another thread raised the maximum, try again.
+			}
+		}
+
+		/**
+		 * @return Number of samples recorded.
+		 */
+		public long getSamples() {
+			return samples.get();
+		}
+
+		/**
+		 * @return Number of samples which failed.
+		 */
+		public long getErrors() {
+			return errors.get();
+		}
+
+		/**
+		 * @return Fraction of samples which failed, 0 if there are none.
+		 */
+		public double getErrorRate() {
+			long count = samples.get();
+			return 0 == count ? 0 : (double) errors.get() / count;
+		}
+
+		/**
+		 * @return The slowest sample in milliseconds.
+		 */
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * Get a percentile of the recorded latencies.
+		 *
+		 * @param percentile
+		 *            The percentile, between 0 and 100.
+		 * @return The latency in milliseconds, 0 if there are no samples.
+		 */
+		public long percentile(double percentile) {
+			long count = samples.get();
+			if (0 == count) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts.get(i);
+				if (seen >= rank) {
+					return Math.min(value(i), max.get());
+				}
+			}
+			return max.get();
+		}
+	}
+
+	/** The steps, by name. */
+	private final ConcurrentMap<String, Step> steps = new ConcurrentHashMap<String, Step>();
+
+	/**
+	 * Records one sample.
+	 *
+	 * @param step
+	 *            Name of the step.
+	 * @param millis
+	 *            How long it took.
+	 * @param passed
+	 *            False if the step failed.
+	 */
+	public void record(String step, long millis, boolean passed) {
+		Step stats = steps.get(step);
+		if (null == stats) {
+			Step created = new Step();
+			stats = steps.putIfAbsent(step, created);
+			if (null == stats) {
+				stats = created;
+			}
+		}
+		stats.record(millis, passed);
+	}
+
+	/**
+	 * @return The steps recorded so far, by name.
+	 */
+	public Map<String, Step> getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Writes one line per step to a CSV report and to the
+	 * {@link EventStream}, and logs it.
+	 *
+	 * @param file
+	 *            The report file.
+	 */
+	public void report(File file) {
+		Writer writer = null;
+		try {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			writer = new FileWriter(file);
+			writer.write("step,samples,errors,errorRate,p50Ms,p90Ms,p95Ms,p99Ms,maxMs\n");
+			for (Map.Entry<String, Step> entry : steps.entrySet()) {
+				Step step = entry.getValue();
+				String line = String.format(Locale.ROOT, "%d,%d,%.4f,%d,%d,%d,%d,%d", step.getSamples(),
+						step.getErrors(), step.getErrorRate(), step.percentile(50), step.percentile(90),
+						step.percentile(95), step.percentile(99), step.getMax());
+				writer.write("\"" + entry.getKey().replace("\"", "\"\"") + "\"," + line + "\n");
+				EventStream.emit("latency", entry.getKey(), step.percentile(95),
+						step.getErrors() > 0 ? "errors" : "passed", line);
+				logger.info("{}: {}", entry.getKey(), line);
+			}
+		} catch (IOException e) {
+			logger.error("Failed to write latency report\n" + e.getMessage());
+		} finally {
+			if (null != writer) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					logger.error("Failed to close latency report\n" + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private static int bucket(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int bucket = LINEAR + (exponent - 7) * SUB_BUCKETS + (int) ((value >>> (exponent - 6)) & (SUB_BUCKETS - 1));
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	/**
+	 * Get the largest value counted in a bucket.
+	 */
+	private static long value(int bucket) {
+		if (bucket < LINEAR) {
+			return bucket;
+		}
+		int exponent = (bucket - LINEAR) / SUB_BUCKETS + 7;
+		long sub = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << (exponent - 6)) - 1;
+	}
+}
@@ -0,0 +1,116 @@
+package iris.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author vickery_b
+ *
+ *         How many virtual users a load run has and when each is active.
+ *         Users start one after another, evenly spread over the ramp-up, all
+ *         run together for the steady state, then stop one after another over
+ *         the ramp-down, the last to start stopping first.
+ *
+ */
+public class LoadProfile {
+
+	/** Number of virtual users. */
+	private final int users;
+
+	/** Time over which users start, in milliseconds. */
+	private final long rampUpMillis;
+
+	/** Time all users run together, in milliseconds. */
+	private final long steadyMillis;
+
+	/** Time over which users stop, in milliseconds. */
+	private final long rampDownMillis;
+
+	/** Pause between a user's iterations, in milliseconds. */
+	private final long thinkTimeMillis;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param users
+	 *            Number of virtual users.
+	 * @param rampUpMillis
+	 *            Time over which users start, in milliseconds.
+	 * @param steadyMillis
+	 *            Time all users run together, in milliseconds.
+	 * @param rampDownMillis
+	 *            Time over which users stop, in milliseconds.
+	 * @param thinkTimeMillis
+	 *            Pause between a user's iterations, in milliseconds.
+	 */
+	public LoadProfile(int users, long rampUpMillis, long steadyMillis, long rampDownMillis, long thinkTimeMillis) {
+		this.users = users;
+		this.rampUpMillis = rampUpMillis;
+		this.steadyMillis = steadyMillis;
+		this.rampDownMillis = rampDownMillis;
+		this.thinkTimeMillis = thinkTimeMillis;
+	}
+
+	/**
+	 * Creates a profile from the -DloadUsers (default 0, no load), and the
+	 * -DloadRampUp (default 30), -DloadSteady (default 120), -DloadRampDown
+	 * (default 30) and -DloadThinkTime (default 1) VM args, all in seconds.
+	 *
+	 * @return The profile.
+	 */
+	public static LoadProfile fromSystemProperties() {
+		return new LoadProfile(Integer.getInteger("loadUsers", 0),
+				TimeUnit.SECONDS.toMillis(Integer.getInteger("loadRampUp", 30)),
+				TimeUnit.SECONDS.toMillis(Integer.getInteger("loadSteady", 120)),
+				TimeUnit.SECONDS.toMillis(Integer.getInteger("loadRampDown", 30)),
+				TimeUnit.SECONDS.toMillis(Integer.getInteger("loadThinkTime", 1)));
+	}
+
+	/**
+	 * @return Number of virtual users.
+	 */
+	public int getUsers() {
+		return users;
+	}
+
+	/**
+	 * @return Pause between a user's iterations, in milliseconds.
+	 */
+	public long getThinkTimeMillis() {
+		return thinkTimeMillis;
+	}
+
+	/**
+	 * @return Length of the whole run, in milliseconds.
+	 */
+	public long getDurationMillis() {
+		return rampUpMillis + steadyMillis + rampDownMillis;
+	}
+
+	/**
+	 * Get when a user starts.
+	 *
+	 * @param user
+	 *            The user, from 0.
+	 * @return Milliseconds from the start of the run.
+	 */
+	public long startMillis(int user) {
+		return rampUpMillis * user / users;
+	}
+
+	/**
+	 * Get when a user stops starting new iterations.
+	 *
+	 * @param user
+	 *            The user, from 0.
+	 * @return Milliseconds from the start of the run.
+	 */
+	public long stopMillis(int user) {
+		return rampUpMillis + steadyMillis + rampDownMillis * (users - user) / users;
+	}
+
+	@Override
+	public String toString() {
+		return users + " user(s), ramp-up " + rampUpMillis + "ms, steady " + steadyMillis + "ms, ramp-down "
+				+ rampDownMillis + "ms, think time " + thinkTimeMillis + "ms";
+	}
+}
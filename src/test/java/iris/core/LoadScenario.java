@@ -0,0 +1,23 @@
+package iris.core;
+
+/**
+ * @author vickery_b
+ *
+ *         What one virtual user of a load run does in each iteration, see
+ *         {@link IrisAbstractSelenium#runLoad}.
+ *
+ */
+public interface LoadScenario {
+
+	/**
+	 * Runs one iteration on the user's own session.
+	 *
+	 * @param user
+	 *            The user, from 0.
+	 * @param iteration
+	 *            The user's iteration, from 0.
+	 * @throws Exception
+	 *             If the iteration fails.
+	 */
+	void run(int user, int iteration) throws Exception;
+}
@@ -0,0 +1,343 @@
+package iris.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Checks the XPath locators in the data files of test classes against
+ *         a live page. Every value in a data file which starts with / or ( is
+ *         taken to be an XPath. Each is evaluated in the page
+ *         -DlocatorRuns (default 20) times in one script call, so the timing
+ *         is not swamped by the round trip, and its matches are counted.
+ *
+ *         A locator is reported as missing if it matches nothing, ambiguous if
+ *         it matches more than one element, slow if one evaluation takes more
+ *         than -DlocatorSlowMs (default 1.0) milliseconds, and brittle if it
+ *         is anchored at /html or depends on two or more positional steps such
+ *         as div[2]. For the first element matched a unique CSS selector is
+ *         suggested, preferring an id, then a name or test attribute, then
+ *         classes, then a path from the nearest ancestor with an id; the
+ *         suggestion is timed the same way so the two can be compared.
+ *
+ *         Findings are logged, emitted as locator events and written to
+ *         target/failsafe-reports/locators/&lt;class&gt;.csv.
+ *
+ */
+public class LocatorAnalyzer {
+
+	private static final Logger logger = LoggerFactory.getLogger(LocatorAnalyzer.class);
+
+	/** Directory of the reports. */
+	private static final String REPORT_DIR = "target/failsafe-reports/locators";
+
+	/** Matches a positional step, e.g. div[2]. */
+	private static final Pattern POSITIONAL_STEP = Pattern.compile("\\[\\d+\\]");
+
+	/**
+	 * Evaluates each XPath in arguments[0] arguments[1] times and returns, for
+	 * each, [matches, ms per evaluation, suggested CSS selector, ms per
+	 * evaluation of the suggestion]. An invalid XPath gives -1 matches and the
+	 * error as its suggestion.
+	 */
+	static final String ANALYZE_SCRIPT = "var xpaths = arguments[0], runs = arguments[1], out = [];"
+			+ "function first(x) { return document.evaluate(x, document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue; }"
+			+ "function time(f) { var s = performance.now(); for (var i = 0; i < runs; i++) { f(); } return (performance.now() - s) / runs; }"
+			+ "function esc(v) { return window.CSS && CSS.escape ? CSS.escape(v) : v.replace(/([^\\w-])/g, '\\\\$1'); }"
+			+ "function unique(css) { try { return document.querySelectorAll(css).length === 1; } catch (e) { return false; } }"
+			+ "function suggest(e) { var tag = e.tagName.toLowerCase();"
+			+ " if (e.id && unique('#' + esc(e.id))) { return '#' + esc(e.id); }"
+			+ " var attrs = ['name', 'data-testid', 'data-test', 'data-id', 'ng-model', 'aria-label', 'title', 'placeholder'];"
+			+ " for (var i = 0; i < attrs.length; i++) { var v = e.getAttribute(attrs[i]);"
+			+ "  if (v) { var a = tag + '[' + attrs[i] + '=\"' + v.replace(/[\"\\\\]/g, '\\\\$&') + '\"]'; if (unique(a)) { return a; } } }"
+			+ " if (e.classList && e.classList.length) { var c = tag + '.' + Array.prototype.map.call(e.classList, esc).join('.'); if (unique(c)) { return c; } }"
+			+ " var path = [], n = e;"
+			+ " while (n && n.nodeType === 1 && n !== document.documentElement) {"
+			+ "  if (n !== e && n.id && unique('#' + esc(n.id))) { path.unshift('#' + esc(n.id)); break; }"
+			+ "  var t = n.tagName.toLowerCase(), index = 1, same = 0, s = n.parentElement ? n.parentElement.firstElementChild : null;"
+			+ "  for (; s; s = s.nextElementSibling) { if (s.tagName === n.tagName) { same++; if (s === n) { index = same; } } }"
+			+ "  path.unshift(same > 1 ? t + ':nth-of-type(' + index + ')' : t); n = n.parentElement; }"
+			+ " var p = path.join(' > '); return unique(p) ? p : null; }"
+			+ "for (var i = 0; i < xpaths.length; i++) { var x = xpaths[i];"
+			+ " try { var count = document.evaluate('count(' + x + ')', document, null, XPathResult.NUMBER_TYPE, null).numberValue;"
+			+ "  var ms = time(function() { first(x); }), e = count > 0 ? first(x) : null, css = e ? suggest(e) : null;"
+			+ "  out.push([count, ms, css, css ? time(function() { document.querySelector(css); }) : -1]);"
+			+ " } catch (err) { out.push([-1, -1, String(err.message || err), -1]); } }"
+			+ "return out;";
+
+	/** What was found about one locator. */
+	public static final class Finding {
+		private final String key;
+		private final String xpath;
+		private final int matches;
+		private final double millis;
+		private final String suggestion;
+		private final double suggestionMillis;
+		private final List<String> issues = new ArrayList<String>();
+
+		private Finding(String key, String xpath, int matches, double millis, String suggestion,
+				double suggestionMillis) {
+			this.key = key;
+			this.xpath = xpath;
+			this.matches = matches;
+			this.millis = millis;
+			this.suggestion = suggestion;
+			this.suggestionMillis = suggestionMillis;
+		}
+
+		/**
+		 * @return The data key of the locator.
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return The XPath.
+		 */
+		public String getXpath() {
+			return xpath;
+		}
+
+		/**
+		 * @return Number of elements matched, -1 if the XPath is invalid.
+		 */
+		public int getMatches() {
+			return matches;
+		}
+
+		/**
+		 * @return Milliseconds per evaluation.
+		 */
+		public double getMillis() {
+			return millis;
+		}
+
+		/**
+		 * @return A unique CSS selector for the first element matched, or
+		 *         null if there is none.
+		 */
+		public String getSuggestion() {
+			return matches < 0 ? null : suggestion;
+		}
+
+		/**
+		 * @return The problems found, e.g. "ambiguous", empty if none.
+		 */
+		public List<String> getIssues() {
+			return Collections.unmodifiableList(issues);
+		}
+
+		@Override
+		public String toString() {
+			if (matches < 0) {
+				return key + ": invalid XPath " + xpath + " (" + suggestion + ")";
+			}
+			return String.format(Locale.ROOT, "%s: %s%s, %d match(es), %.3f ms%s", key, xpath,
+					issues.isEmpty() ? "" : " " + issues, matches, millis,
+					null == suggestion ? ""
+							: String.format(Locale.ROOT, ", try By.cssSelector(\"%s\") %.3f ms", suggestion,
+									suggestionMillis));
+		}
+	}
+
+	/** The page the locators are evaluated in. */
+	private final WebDriver driver;
+
+	/** Evaluations of each locator. */
+	private final int runs;
+
+	/** Milliseconds per evaluation above which a locator is slow. */
+	private final double slowMillis;
+
+	/**
+	 * Creates an analyzer using -DlocatorRuns and -DlocatorSlowMs.
+	 *
+	 * @param driver
+	 *            The web driver, which must support scripts and be on the page
+	 *            the locators are for.
+	 */
+	public LocatorAnalyzer(WebDriver driver) {
+		this(driver, Integer.getInteger("locatorRuns", 20),
+				Double.parseDouble(System.getProperty("locatorSlowMs", "1.0")));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param driver
+	 *            The web driver, which must support scripts and be on the page
+	 *            the locators are for.
+	 * @param runs
+	 *            Evaluations of each locator.
+	 * @param slowMillis
+	 *            Milliseconds per evaluation above which a locator is slow.
+	 */
+	public LocatorAnalyzer(WebDriver driver, int runs, double slowMillis) {
+		this.driver = driver;
+		this.runs = Math.max(1, runs);
+		this.slowMillis = slowMillis;
+	}
+
+	/**
+	 * Analyzes the locators in the data file of each class and reports the
+	 * findings.
+	 *
+	 * @param testClasses
+	 *            The test classes.
+	 * @return The findings of all the classes, including locators with no
+	 *         issues.
+	 * @throws IOException
+	 *             If a data file cannot be read.
+	 */
+	public List<Finding> analyze(Class<?>... testClasses) throws IOException {
+		List<Finding> findings = new ArrayList<Finding>();
+		for (Class<?> testClass : testClasses) {
+			List<Finding> classFindings = analyze(IrisSeleniumBase.loadData(testClass));
+			report(testClass.getSimpleName(), classFindings);
+			findings.addAll(classFindings);
+		}
+		return findings;
+	}
+
+	/**
+	 * Analyzes the XPath locators in one set of data.
+	 *
+	 * @param data
+	 *            The data, as loaded from a data file.
+	 * @return The findings, in key order.
+	 */
+	public List<Finding> analyze(Properties data) {
+		Map<String, String> xpaths = new TreeMap<String, String>();
+		for (String key : data.stringPropertyNames()) {
+			String value = data.getProperty(key).trim();
+			if (DataPage.isLocator(value)) {
+				xpaths.put(key, value);
+			}
+		}
+		List<Finding> findings = new ArrayList<Finding>();
+		if (xpaths.isEmpty()) {
+			return findings;
+		}
+
+		List<?> results = (List<?>) ((JavascriptExecutor) driver).executeScript(ANALYZE_SCRIPT,
+				new ArrayList<String>(xpaths.values()), runs);
+		int i = 0;
+		for (Map.Entry<String, String> entry : xpaths.entrySet()) {
+			List<?> result = (List<?>) results.get(i++);
+			Finding finding = new Finding(entry.getKey(), entry.getValue(), (int) number(result.get(0)),
+					number(result.get(1)), null == result.get(2) ? null : String.valueOf(result.get(2)),
+					number(result.get(3)));
+			classify(finding);
+			findings.add(finding);
+		}
+		return findings;
+	}
+
+	/**
+	 * Works out the issues of a locator.
+	 */
+	private void classify(Finding finding) {
+		if (finding.matches < 0) {
+			finding.issues.add("invalid");
+			return;
+		}
+		if (0 == finding.matches) {
+			finding.issues.add("missing");
+		} else if (finding.matches > 1) {
+			finding.issues.add("ambiguous");
+		}
+		if (finding.millis > slowMillis) {
+			finding.issues.add("slow");
+		}
+		int positional = 0;
+		Matcher matcher = POSITIONAL_STEP.matcher(finding.xpath);
+		while (matcher.find()) {
+			positional++;
+		}
+		if (positional >= 2 || finding.xpath.startsWith("/html")) {
+			finding.issues.add("brittle");
+		}
+	}
+
+	/**
+	 * Logs the findings of a class, emits an event for each and writes them
+	 * to the class's report.
+	 */
+	private static void report(String className, List<Finding> findings) {
+		int flagged = 0;
+		StringBuilder lines = new StringBuilder("key,xpath,matches,ms,issues,suggestion,suggestionMs\n");
+		for (Finding finding : findings) {
+			if (finding.issues.isEmpty()) {
+				logger.debug("{}", finding);
+			} else {
+				flagged++;
+				logger.warn("{}", finding);
+			}
+			EventStream.emit("locator", className + "." + finding.key, Math.round(finding.millis),
+					finding.issues.isEmpty() ? "ok" : join(finding.issues), finding.toString());
+			lines.append(csv(finding.key)).append(',').append(csv(finding.xpath)).append(',').append(finding.matches)
+					.append(',').append(String.format(Locale.ROOT, "%.4f", finding.millis)).append(',')
+					.append(csv(join(finding.issues))).append(',')
+					.append(null == finding.getSuggestion() ? "" : csv(finding.suggestion)).append(',')
+					.append(null == finding.getSuggestion() ? ""
+							: String.format(Locale.ROOT, "%.4f", finding.suggestionMillis))
+					.append('\n');
+		}
+		logger.info("{}: {} of {} locator(s) flagged", className, flagged, findings.size());
+
+		File file = new File(REPORT_DIR, className + ".csv");
+		Writer writer = null;
+		try {
+			file.getParentFile().mkdirs();
+			writer = new FileWriter(file);
+			writer.write(lines.toString());
+		} catch (IOException e) {
+			logger.error("Failed to write locator report\n" + e.getMessage());
+		} finally {
+			if (null != writer) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					logger.error("Failed to close locator report\n" + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private static String join(List<String> values) {
+		StringBuilder joined = new StringBuilder();
+		for (String value : values) {
+			if (joined.length() > 0) {
+				joined.append(' ');
+			}
+			joined.append(value);
+		}
+		return joined.toString();
+	}
+
+	private static double number(Object value) {
+		return value instanceof Number ? ((Number) value).doubleValue() : -1;
+	}
+
+	private static String csv(String value) {
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
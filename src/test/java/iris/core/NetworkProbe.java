@@ -0,0 +1,264 @@
+package iris.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Splits the time of a UI step between waiting on the server and work
+ *         in the browser. A hook injected into the page wraps
+ *         XMLHttpRequest and fetch and records when each request was sent,
+ *         when its headers arrived and when it finished. When the probe is
+ *         stopped, the time in the window during which at least one request
+ *         was outstanding is the server time; the rest of the window is
+ *         client time (scripting, rendering and the test's own commands).
+ *
+ *         A fetch is taken to finish when its headers arrive, as the page may
+ *         read the body much later. The hook is lost when the page is
+ *         reloaded and reinstalled by the next probe. Each request is emitted
+ *         as a request event once, when it has finished, and the split of each
+ *         window as a network event. The script timeout of the session is put
+ *         back once the requests have been collected, see
+ *         {@link ScriptTimeouts}.
+ *
+ *         With -DnetworkSplit=true the {@link WaitEngine} probes every step,
+ *         at the cost of an extra script call at each end of the step.
+ *
+ */
+public class NetworkProbe {
+
+	private static final Logger logger = LoggerFactory.getLogger(NetworkProbe.class);
+
+	/**
+	 * Installs the hook if the page does not have it yet, forgets finished
+	 * requests and starts a new window.
+	 */
+	static final String MARK_SCRIPT = "var w = window, n = w.__irisNet;"
+			+ "if (!n) { n = w.__irisNet = { log: [], pending: 0, mark: 0 };"
+			+ " var now = function() { return performance.now(); };"
+			+ " var X = XMLHttpRequest.prototype, open = X.open, send = X.send;"
+			+ " X.open = function(m, u) { this.__iris = { method: String(m), url: String(u) }; return open.apply(this, arguments); };"
+			+ " X.send = function() { var x = this, r = { method: x.__iris ? x.__iris.method : '', url: x.__iris ? x.__iris.url : '', start: now() };"
+			+ "  n.pending++; n.log.push(r);"
+			+ "  x.addEventListener('readystatechange', function() { if (x.readyState >= 2 && r.headers === undefined) { r.headers = now(); } });"
+			+ "  x.addEventListener('loadend', function() { r.end = now(); r.status = x.status; n.pending--; });"
+			+ "  return send.apply(this, arguments); };"
+			+ " if (w.fetch) { var f = w.fetch; w.fetch = function(input, init) {"
+			+ "  var r = { method: (init && init.method) || (input && input.method) || 'GET', url: String((input && input.url) || input), start: now() };"
+			+ "  n.pending++; n.log.push(r);"
+			+ "  return f.apply(this, arguments).then(function(res) { r.headers = r.end = now(); r.status = res.status; n.pending--; return res; },"
+			+ "   function(e) { r.end = now(); r.status = 0; n.pending--; throw e; }); }; } }"
+			+ "n.log = n.log.filter(function(r) { return r.end === undefined; });"
+			+ "n.mark = performance.now();";
+
+	/**
+	 * Waits up to arguments[0] ms for outstanding requests to finish, then
+	 * returns the window and its requests as [method, url, start, headers,
+	 * end, status, emitted], with -1 for times not reached yet. Emitted tells
+	 * whether a finished request was returned before; every finished request
+	 * is marked as emitted.
+	 */
+	static final String COLLECT_SCRIPT = "var done = arguments[arguments.length - 1], timeout = arguments[0];"
+			+ "var n = window.__irisNet; if (!n) { done(null); return; }"
+			+ "var waited = performance.now();"
+			+ "(function check() { if (n.pending > 0 && performance.now() - waited < timeout) { setTimeout(check, 50); return; }"
+			+ " done({ mark: n.mark, now: performance.now(), requests: n.log.map(function(r) {"
+			+ "  var emitted = !!r.emitted; if (r.end !== undefined) { r.emitted = true; }"
+			+ "  return [r.method, r.url, r.start, r.headers === undefined ? -1 : r.headers, r.end === undefined ? -1 : r.end, r.status || 0, emitted]; }) }); })();";
+
+	/** The split of one window. */
+	public static final class Result {
+		private final String label;
+		private final long elapsedMillis;
+		private final long serverMillis;
+		private final int requests;
+		private final String slowest;
+
+		private Result(String label, long elapsedMillis, long serverMillis, int requests, String slowest) {
+			this.label = label;
+			this.elapsedMillis = elapsedMillis;
+			this.serverMillis = serverMillis;
+			this.requests = requests;
+			this.slowest = slowest;
+		}
+
+		/**
+		 * @return Length of the window in milliseconds.
+		 */
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * @return Milliseconds during which a request was outstanding.
+		 */
+		public long getServerMillis() {
+			return serverMillis;
+		}
+
+		/**
+		 * @return Milliseconds with no request outstanding.
+		 */
+		public long getClientMillis() {
+			return elapsedMillis - serverMillis;
+		}
+
+		/**
+		 * @return Number of requests made in the window.
+		 */
+		public int getRequests() {
+			return requests;
+		}
+
+		@Override
+		public String toString() {
+			return label + ": " + elapsedMillis + " ms, server " + serverMillis + " ms, client " + getClientMillis()
+					+ " ms, " + requests + " request(s)" + (null == slowest ? "" : ", slowest " + slowest);
+		}
+	}
+
+	/** The page being probed. */
+	private final WebDriver driver;
+
+	/**
+	 * Starts a window on the page the driver is on.
+	 *
+	 * @param driver
+	 *            The web driver, which must support scripts.
+	 */
+	public NetworkProbe(WebDriver driver) {
+		this.driver = driver;
+		((JavascriptExecutor) driver).executeScript(MARK_SCRIPT);
+	}
+
+	/**
+	 * Ends the window once the outstanding requests have finished, e.g.
+	 * after a filter has been applied, and reports its split.
+	 *
+	 * @param label
+	 *            What the page was doing, e.g. "apply filter".
+	 * @param timeoutMillis
+	 *            Longest time to wait for outstanding requests; 0 ends the
+	 *            window at once.
+	 * @return The split, or null if the page was reloaded during the window.
+	 */
+	public Result stop(String label, long timeoutMillis) {
+		long scriptTimeout = ScriptTimeouts.atLeast(driver, timeoutMillis + 5000);
+		Object collected;
+		try {
+			collected = ((JavascriptExecutor) driver).executeAsyncScript(COLLECT_SCRIPT, timeoutMillis);
+		} finally {
+			ScriptTimeouts.restore(driver, scriptTimeout);
+		}
+		if (!(collected instanceof Map)) {
+			logger.warn("Network probe for '{}' was lost, was the page reloaded?", label);
+			return null;
+		}
+		Result result = split(label, (Map<?, ?>) collected);
+		logger.info("{}", result);
+		EventStream.emit("network", label, result.getServerMillis(), null, result.toString());
+		return result;
+	}
+
+	/**
+	 * Works out the server and client time of a window from the collected
+	 * requests, emitting an event for each request.
+	 */
+	private static Result split(String label, Map<?, ?> collected) {
+		double mark = number(collected.get("mark"));
+		double now = number(collected.get("now"));
+		List<double[]> busy = new ArrayList<double[]>();
+		String slowest = null;
+		double slowestMillis = -1;
+
+		for (Object item : (List<?>) collected.get("requests")) {
+			List<?> request = (List<?>) item;
+			double start = number(request.get(2));
+			double headers = number(request.get(3));
+			double end = number(request.get(4));
+			double finished = end < 0 ? now : end;
+			String name = request.get(0) + " " + request.get(1);
+
+			busy.add(new double[] { Math.max(start, mark), Math.min(finished, now) });
+			if (finished - start > slowestMillis) {
+				slowestMillis = finished - start;
+				slowest = String.format(Locale.ROOT, "%s %.0f ms", name, slowestMillis);
+			}
+			// A request still pending counts towards the server time of each
+			// window it spans, but is emitted once, in the window it finishes
+			if (end >= 0 && !Boolean.TRUE.equals(request.get(6))) {
+				EventStream.emit("request", name, Math.round(end - start), String.valueOf(request.get(5)),
+						headers < 0 ? null : String.format(Locale.ROOT, "ttfb=%.0f step=%s", headers - start, label));
+			}
+		}
+
+		Collections.sort(busy, new Comparator<double[]>() {
+			public int compare(double[] a, double[] b) {
+				return Double.compare(a[0], b[0]);
+			}
+		});
+		double server = 0;
+		double[] current = null;
+		for (double[] interval : busy) {
+			if (null != current && interval[0] <= current[1]) {
+				current[1] = Math.max(current[1], interval[1]);
+			} else {
+				if (null != current) {
+					server += current[1] - current[0];
+				}
+				current = Arrays.copyOf(interval, 2);
+			}
+		}
+		if (null != current) {
+			server += current[1] - current[0];
+		}
+
+		return new Result(label, Math.round(now - mark), Math.round(server), busy.size(), slowest);
+	}
+
+	/**
+	 * Starts a window for a wait step, if -DnetworkSplit=true. Failures are
+	 * logged and ignored.
+	 */
+	static NetworkProbe startForStep(WebDriver driver) {
+		if (!Boolean.getBoolean("networkSplit") || !(driver instanceof JavascriptExecutor)) {
+			return null;
+		}
+		try {
+			return new NetworkProbe(driver);
+		} catch (Exception e) {
+			logger.debug("Could not start network probe: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Ends the window of a wait step without waiting for outstanding
+	 * requests. Failures are logged and ignored.
+	 */
+	static void stopForStep(NetworkProbe probe, String step) {
+		if (null == probe) {
+			return;
+		}
+		try {
+			probe.stop(step, 0);
+		} catch (Exception e) {
+			logger.debug("Could not stop network probe: {}", e.getMessage());
+		}
+	}
+
+	private static double number(Object value) {
+		return value instanceof Number ? ((Number) value).doubleValue() : -1;
+	}
+}
@@ -0,0 +1,60 @@
+package iris.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * @author vickery_b
+ *
+ *         Checks that stopping a probe sets the script timeout of a new
+ *         session, puts back a timeout it lengthened, and leaves a long enough
+ *         timeout alone.
+ *
+ */
+public class NetworkProbeTest {
+
+	private FakeRemoteEnd remote;
+
+	private RemoteWebDriver driver;
+
+	@Before
+	public void open() {
+		remote = new FakeRemoteEnd(0);
+		driver = new RemoteWebDriver(remote, new DesiredCapabilities());
+	}
+
+	@After
+	public void close() {
+		driver.quit();
+	}
+
+	@Test
+	public void setsScriptTimeoutOfNewSession() {
+		NetworkProbe.stopForStep(new NetworkProbe(driver), "load map");
+
+		assertEquals(1, remote.count(DriverCommand.SET_TIMEOUT));
+	}
+
+	@Test
+	public void restoresLengthenedScriptTimeout() {
+		ScriptTimeouts.set(driver, 10000);
+		new NetworkProbe(driver).stop("apply filter", 30000);
+
+		// Set, lengthened for the collection and put back after it
+		assertEquals(3, remote.count(DriverCommand.SET_TIMEOUT));
+	}
+
+	@Test
+	public void keepsLongEnoughScriptTimeout() {
+		ScriptTimeouts.set(driver, 60000);
+		NetworkProbe.stopForStep(new NetworkProbe(driver), "load map");
+
+		assertEquals(1, remote.count(DriverCommand.SET_TIMEOUT));
+	}
+}
@@ -0,0 +1,159 @@
+package iris.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * @author vickery_b
+ *
+ *         Generates a typed {@link DataPage} from the data file of each test
+ *         class. The page object is named after the class with a Page suffix
+ *         and goes in the same package. For each XPath in the data file it has
+ *         a method returning the element and one returning its locator, e.g.
+ *         filterButton() and filterButtonBy(); for every other value a method
+ *         returning the value, e.g. filterNameKeys().
+ *
+ *         Run after changing a data file, with the source directory and the
+ *         test classes as arguments, e.g.
+ *
+ *         java iris.core.PageObjectGenerator src/test/java selenium.FilterTests
+ *
+ */
+public final class PageObjectGenerator {
+
+	private PageObjectGenerator() {
+	}
+
+	/**
+	 * Generates the page objects.
+	 *
+	 * @param args
+	 *            The source directory, then the fully qualified name of each
+	 *            test class.
+	 * @throws Exception
+	 *             If a class cannot be loaded or a file cannot be read or
+	 *             written.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			throw new IllegalArgumentException("Usage: PageObjectGenerator <source dir> <test class>...");
+		}
+		for (int i = 1; i < args.length; i++) {
+			File file = generate(new File(args[0]), Class.forName(args[i]));
+			System.out.println("Wrote " + file);
+		}
+	}
+
+	/**
+	 * Generates the page object of one test class.
+	 *
+	 * @param sourceDir
+	 *            The source directory the page object is written below.
+	 * @param testClass
+	 *            The test class.
+	 * @return The file written.
+	 * @throws IOException
+	 *             If the data file cannot be read or the page object cannot
+	 *             be written.
+	 */
+	public static File generate(File sourceDir, Class<?> testClass) throws IOException {
+		String packageName = testClass.getPackage().getName();
+		String name = testClass.getSimpleName() + "Page";
+		File file = new File(sourceDir, packageName.replace('.', '/') + "/" + name + ".java");
+		file.getParentFile().mkdirs();
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(source(testClass, IrisSeleniumBase.loadData(testClass)));
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Get the source of the page object of a test class.
+	 */
+	static String source(Class<?> testClass, Properties data) {
+		String name = testClass.getSimpleName() + "Page";
+		Map<String, String> values = new TreeMap<String, String>();
+		for (String key : data.stringPropertyNames()) {
+			values.put(key, data.getProperty(key));
+		}
+
+		StringBuilder source = new StringBuilder();
+		source.append("package ").append(testClass.getPackage().getName()).append(";\n\n");
+		source.append("import java.io.IOException;\n\n");
+		source.append("import org.openqa.selenium.By;\n");
+		source.append("import org.openqa.selenium.SearchContext;\n");
+		source.append("import org.openqa.selenium.WebElement;\n\n");
+		source.append("import iris.core.DataPage;\n\n");
+		source.append("/**\n");
+		source.append(" * Page object generated from ").append(testClass.getSimpleName())
+				.append(".txt by PageObjectGenerator.\n");
+		source.append(" * Do not edit; regenerate it after changing the data file.\n");
+		source.append(" */\n");
+		source.append("public class ").append(name).append(" extends DataPage {\n\n");
+		source.append("\t/**\n");
+		source.append("\t * Constructor.\n");
+		source.append("\t * \n");
+		source.append("\t * @param searchContext\n");
+		source.append("\t *            Where elements are found, normally the web driver.\n");
+		source.append("\t * @throws IOException\n");
+		source.append("\t *             If the data file cannot be read.\n");
+		source.append("\t */\n");
+		source.append("\tpublic ").append(name).append("(SearchContext searchContext) throws IOException {\n");
+		source.append("\t\tsuper(searchContext, ").append(testClass.getSimpleName()).append(".class);\n");
+		source.append("\t}\n");
+
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			String key = entry.getKey();
+			String method = methodName(key);
+			String quotedKey = "\"" + key.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+			String value = entry.getValue().replace("*/", "*&#47;");
+
+			source.append('\n');
+			if (DataPage.isLocator(entry.getValue())) {
+				source.append("\t/**\n\t * @return The element at ").append(value).append("\n\t */\n");
+				source.append("\tpublic WebElement ").append(method).append("() {\n");
+				source.append("\t\treturn element(").append(quotedKey).append(");\n\t}\n\n");
+				source.append("\t/**\n\t * @return The locator ").append(value).append("\n\t */\n");
+				source.append("\tpublic By ").append(method).append("By() {\n");
+				source.append("\t\treturn by(").append(quotedKey).append(");\n\t}\n");
+			} else {
+				source.append("\t/**\n\t * @return The data value, by default: ").append(value).append("\n\t */\n");
+				source.append("\tpublic String ").append(method).append("() {\n");
+				source.append("\t\treturn text(").append(quotedKey).append(");\n\t}\n");
+			}
+		}
+		source.append("}\n");
+		return source.toString();
+	}
+
+	/**
+	 * Get the method name for a data key, e.g. filterButton for FilterButton.
+	 */
+	static String methodName(String key) {
+		StringBuilder name = new StringBuilder();
+		boolean upper = false;
+		for (char c : key.toCharArray()) {
+			if (Character.isJavaIdentifierPart(c)) {
+				name.append(upper ? Character.toUpperCase(c) : c);
+				upper = false;
+			} else {
+				upper = name.length() > 0;
+			}
+		}
+		if (0 == name.length() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+			name.insert(0, '_');
+		}
+		name.setCharAt(0, Character.toLowerCase(name.charAt(0)));
+		return name.toString();
+	}
+}
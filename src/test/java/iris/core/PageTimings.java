@@ -0,0 +1,287 @@
+package iris.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Collects the browser's Navigation Timing and Resource Timing entries,
+ *         so every functional test run is also a front-end performance sample.
+ *         Each capture reads the resource entries added since the previous
+ *         capture and then clears the browser's buffer, so entries are never
+ *         counted twice and the buffer (150 entries by default, easily filled
+ *         by map tiles) never overflows.
+ *
+ *         The entries of each test are appended to
+ *         target/failsafe-reports/page-timings/&lt;test&gt;.csv, and a
+ *         navigation and a resources event is emitted per capture. Resources
+ *         are also aggregated across the run by URL, with the query string
+ *         removed and numeric path segments (e.g. tile coordinates) replaced
+ *         by {n}; the latency and size statistics are written to
+ *         target/failsafe-reports/resource-timings.csv when the JVM exits.
+ *         -DpageTimings=false turns capturing off.
+ *
+ */
+public final class PageTimings {
+
+	private static final Logger logger = LoggerFactory.getLogger(PageTimings.class);
+
+	/** Directory of the per-test files and the aggregate report. */
+	private static final String REPORT_DIR = "target/failsafe-reports";
+
+	/**
+	 * Returns the navigation timings (in ms from the start of navigation) and
+	 * the resource entries since the last capture, as [name, initiator,
+	 * duration, time to first byte, transfer size, body size], then clears
+	 * the resource buffer.
+	 */
+	static final String CAPTURE_SCRIPT = "var p = window.performance; if (!p) { return null; }"
+			+ "var result = { resources: [] };"
+			+ "var n = p.getEntriesByType ? p.getEntriesByType('navigation')[0] : null;"
+			+ "if (n) { result.navigation = { dns: n.domainLookupEnd - n.domainLookupStart,"
+			+ " connect: n.connectEnd - n.connectStart, ttfb: n.responseStart - n.requestStart,"
+			+ " response: n.responseEnd - n.responseStart, domInteractive: n.domInteractive,"
+			+ " domContentLoaded: n.domContentLoadedEventEnd, load: n.loadEventEnd, transferSize: n.transferSize || 0 }; }"
+			+ "else if (p.timing) { var t = p.timing, s = t.navigationStart;"
+			+ " result.navigation = { dns: t.domainLookupEnd - t.domainLookupStart, connect: t.connectEnd - t.connectStart,"
+			+ " ttfb: t.responseStart - t.requestStart, response: t.responseEnd - t.responseStart,"
+			+ " domInteractive: t.domInteractive - s, domContentLoaded: t.domContentLoadedEventEnd - s,"
+			+ " load: Math.max(0, t.loadEventEnd - s), transferSize: 0 }; }"
+			+ "var r = p.getEntriesByType ? p.getEntriesByType('resource') : [];"
+			+ "for (var i = 0; i < r.length; i++) { var e = r[i];"
+			+ " result.resources.push([e.name, e.initiatorType, Math.round(e.duration),"
+			+ " e.responseStart > 0 ? Math.round(e.responseStart - e.requestStart) : -1,"
+			+ " e.transferSize || 0, e.encodedBodySize || 0]); }"
+			+ "if (p.clearResourceTimings) { p.clearResourceTimings(); }"
+			+ "return result;";
+
+	/** Matches numeric path segments, e.g. tile coordinates. */
+	private static final Pattern NUMERIC_SEGMENT = Pattern.compile("/\\d+(?=[/.]|$)");
+
+	/** Latency of each resource, aggregated across the run. */
+	private static final LatencyStats latencies = new LatencyStats();
+
+	/** Bytes transferred for each resource, aggregated across the run. */
+	private static final ConcurrentMap<String, AtomicLong> transferred = new ConcurrentHashMap<String, AtomicLong>();
+
+	/** Guards the per-test files. */
+	private static final Lock lock = new ReentrantLock();
+
+	static {
+		if (isEnabled()) {
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					report();
+				}
+			}, "page-timings-report"));
+		}
+	}
+
+	private PageTimings() {
+	}
+
+	/**
+	 * Checks whether timings are being captured.
+	 *
+	 * @return False if -DpageTimings=false was given.
+	 */
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(System.getProperty("pageTimings", "true"));
+	}
+
+	/**
+	 * Captures the timings of the page the driver is on. Failures are logged
+	 * and never fail the test.
+	 *
+	 * @param driver
+	 *            The web driver, which must support scripts.
+	 * @param label
+	 *            What the page has just done, e.g. "load map".
+	 * @param navigation
+	 *            True to record the navigation timings too, i.e. just after a
+	 *            page load.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void capture(WebDriver driver, String label, boolean navigation) {
+		if (!isEnabled() || !(driver instanceof JavascriptExecutor)) {
+			return;
+		}
+
+		Map<String, Object> result;
+		try {
+			result = (Map<String, Object>) ((JavascriptExecutor) driver).executeScript(CAPTURE_SCRIPT);
+		} catch (Exception e) {
+			logger.debug("Could not capture page timings: {}", e.getMessage());
+			return;
+		}
+		if (null == result) {
+			return;
+		}
+
+		String test = EventStream.getCurrentTest();
+		StringBuilder lines = new StringBuilder();
+
+		Map<String, Object> nav = (Map<String, Object>) result.get("navigation");
+		if (navigation && null != nav) {
+			long load = number(nav.get("load"));
+			String detail = String.format(Locale.ROOT,
+					"dns=%d connect=%d ttfb=%d response=%d domInteractive=%d domContentLoaded=%d transferSize=%d",
+					number(nav.get("dns")), number(nav.get("connect")), number(nav.get("ttfb")),
+					number(nav.get("response")), number(nav.get("domInteractive")),
+					number(nav.get("domContentLoaded")), number(nav.get("transferSize")));
+			EventStream.emit("navigation", label, load, null, detail);
+			latencies.record("navigation ttfb", number(nav.get("ttfb")), true);
+			latencies.record("navigation domContentLoaded", number(nav.get("domContentLoaded")), true);
+			latencies.record("navigation load", load, true);
+			lines.append(csv(label)).append(",navigation,,,").append(load).append(',')
+					.append(number(nav.get("ttfb"))).append(',').append(number(nav.get("transferSize"))).append(",\n");
+		}
+
+		List<List<Object>> resources = (List<List<Object>>) result.get("resources");
+		long totalBytes = 0;
+		long slowest = 0;
+		for (List<Object> entry : resources) {
+			String name = String.valueOf(entry.get(0));
+			String initiator = String.valueOf(entry.get(1));
+			long duration = number(entry.get(2));
+			long bytes = number(entry.get(4));
+			String key = key(name);
+
+			latencies.record(key, duration, true);
+			AtomicLong total = transferred.get(key);
+			if (null == total) {
+				transferred.putIfAbsent(key, new AtomicLong());
+				total = transferred.get(key);
+			}
+			total.addAndGet(bytes);
+			totalBytes += bytes;
+			slowest = Math.max(slowest, duration);
+
+			lines.append(csv(label)).append(",resource,").append(csv(name)).append(',').append(initiator).append(',')
+					.append(duration).append(',').append(number(entry.get(3))).append(',').append(bytes).append(',')
+					.append(number(entry.get(5))).append('\n');
+		}
+		if (!resources.isEmpty()) {
+			EventStream.emit("resources", label, slowest, null,
+					resources.size() + " resource(s), " + totalBytes + " bytes transferred");
+		}
+
+		write(null == test ? "unknown" : test, lines);
+	}
+
+	/**
+	 * Appends lines to the file of a test, writing the header first if the
+	 * file is new.
+	 */
+	private static void write(String test, CharSequence lines) {
+		if (0 == lines.length()) {
+			return;
+		}
+		File file = new File(REPORT_DIR + "/page-timings", test.replaceAll("[^A-Za-z0-9._-]", "_") + ".csv");
+
+		lock.lock();
+		Writer writer = null;
+		try {
+			boolean header = !file.exists();
+			file.getParentFile().mkdirs();
+			writer = new FileWriter(file, true);
+			if (header) {
+				writer.write("label,kind,name,initiator,durationMs,ttfbMs,transferBytes,bodyBytes\n");
+			}
+			writer.write(lines.toString());
+		} catch (IOException e) {
+			logger.error("Failed to write page timings\n" + e.getMessage());
+		} finally {
+			if (null != writer) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					logger.error("Failed to close page timings\n" + e.getMessage());
+				}
+			}
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the latency and size statistics of every resource seen in the
+	 * run.
+	 */
+	private static void report() {
+		if (latencies.getSteps().isEmpty()) {
+			return;
+		}
+		File file = new File(REPORT_DIR, "resource-timings.csv");
+		Writer writer = null;
+		try {
+			file.getParentFile().mkdirs();
+			writer = new FileWriter(file);
+			writer.write("resource,count,p50Ms,p95Ms,maxMs,avgBytes,totalBytes\n");
+			for (Map.Entry<String, LatencyStats.Step> entry : latencies.getSteps().entrySet()) {
+				LatencyStats.Step step = entry.getValue();
+				AtomicLong bytes = transferred.get(entry.getKey());
+				long total = null == bytes ? 0 : bytes.get();
+				writer.write(csv(entry.getKey()) + "," + step.getSamples() + "," + step.percentile(50) + ","
+						+ step.percentile(95) + "," + step.getMax() + "," + total / Math.max(1, step.getSamples()) + ","
+						+ total + "\n");
+			}
+		} catch (IOException e) {
+			logger.error("Failed to write resource timings\n" + e.getMessage());
+		} finally {
+			if (null != writer) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					logger.error("Failed to close resource timings\n" + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the name resources are aggregated under: the URL without its query
+	 * string, with numeric path segments replaced by {n}.
+	 */
+	static String key(String url) {
+		int end = url.length();
+		int query = url.indexOf('?');
+		if (query >= 0) {
+			end = query;
+		}
+		int fragment = url.indexOf('#');
+		if (fragment >= 0 && fragment < end) {
+			end = fragment;
+		}
+		int scheme = url.indexOf("://");
+		int path = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+		if (path < 0 || path >= end) {
+			return url.substring(0, end);
+		}
+		return url.substring(0, path) + NUMERIC_SEGMENT.matcher(url.substring(path, end)).replaceAll("/{n}");
+	}
+
+	private static long number(Object value) {
+		return value instanceof Number ? Math.round(((Number) value).doubleValue()) : 0;
+	}
+
+	private static String csv(String value) {
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
@@ -0,0 +1,333 @@
+package iris.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author vickery_b
+ *
+ *         Fails the build when the p95 latency of a test or wait step has
+ *         regressed against a baseline checked into the project. Reads the
+ *         {@link EventStream} of the run: passed test_end events give a
+ *         per-test metric and step events a per-step metric, keyed by test and
+ *         step.
+ *
+ *         A metric regresses when its p95 exceeds the baseline p95 by more
+ *         than the tolerance (-DperfGate.tolerance, default 0.2, i.e. 20%)
+ *         and by more than -DperfGate.minSlackMs (default 100) milliseconds,
+ *         so tiny steps do not fail on noise. Metrics with fewer than
+ *         -DperfGate.minSamples (default 3) samples, in the run or in the
+ *         baseline, are reported but not gated. The samples come from running
+ *         each test several times in the one run (see {@link RepeatRule}) and
+ *         from steps repeated within a test.
+ *
+ *         Run by the perf-gate Maven profile after the tests, or from the
+ *         command line with the event file and baseline file as arguments.
+ *         The profile runs each test -DperfGate.repeats (default 5) times and
+ *         writes the events of each build to a file of their own, so only the
+ *         current run is gated. -DperfGate.update=true writes the current run
+ *         as the new baseline instead of checking it, with as many samples as
+ *         the gate will later have.
+ *
+ */
+public final class PerformanceGate {
+
+	/** The samples and baseline of one metric. */
+	private static final class Metric {
+		private final List<Long> samples = new ArrayList<Long>();
+		private long baselineP95 = -1;
+		private int baselineSamples;
+
+		private long p95() {
+			List<Long> sorted = new ArrayList<Long>(samples);
+			Collections.sort(sorted);
+			int rank = (int) Math.ceil(0.95 * sorted.size());
+			return sorted.get(Math.max(0, rank - 1));
+		}
+	}
+
+	/** Fractional increase over the baseline p95 which is allowed. */
+	private final double tolerance;
+
+	/** Increase over the baseline p95 which is always allowed, in ms. */
+	private final long minSlackMillis;
+
+	/** Fewest samples for a metric to be gated. */
+	private final int minSamples;
+
+	/** The metrics, by name. */
+	private final Map<String, Metric> metrics = new TreeMap<String, Metric>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param tolerance
+	 *            Fractional increase over the baseline p95 which is allowed.
+	 * @param minSlackMillis
+	 *            Increase over the baseline p95 which is always allowed, in
+	 *            milliseconds.
+	 * @param minSamples
+	 *            Fewest samples for a metric to be gated.
+	 */
+	public PerformanceGate(double tolerance, long minSlackMillis, int minSamples) {
+		this.tolerance = tolerance;
+		this.minSlackMillis = minSlackMillis;
+		this.minSamples = minSamples;
+	}
+
+	/**
+	 * Checks a run against the baseline, or updates the baseline.
+	 *
+	 * @param args
+	 *            The event file (default target/failsafe-reports/events.jsonl)
+	 *            and the baseline file (default
+	 *            src/test/resources/perf-baseline.csv). A missing event file
+	 *            passes, as there is nothing to check.
+	 * @throws IOException
+	 *             If a file cannot be read or written.
+	 * @throws AssertionError
+	 *             If any metric has regressed.
+	 */
+	public static void main(String[] args) throws IOException {
+		File events = new File(args.length > 0 ? args[0] : "target/failsafe-reports/events.jsonl");
+		File baseline = new File(args.length > 1 ? args[1] : "src/test/resources/perf-baseline.csv");
+
+		PerformanceGate gate = new PerformanceGate(
+				Double.parseDouble(System.getProperty("perfGate.tolerance", "0.2")),
+				Long.getLong("perfGate.minSlackMs", 100), Integer.getInteger("perfGate.minSamples", 3));
+		if (!events.exists()) {
+			System.out.println("Performance gate: no events in " + events + ", nothing to check");
+			return;
+		}
+		gate.readEvents(events);
+
+		if (Boolean.getBoolean("perfGate.update")) {
+			gate.writeBaseline(baseline);
+			System.out.println("Wrote performance baseline " + baseline + " from " + events);
+			return;
+		}
+
+		gate.readBaseline(baseline);
+		StringBuilder report = new StringBuilder();
+		if (gate.check(report) > 0) {
+			throw new AssertionError("p95 regression against " + baseline + "\n" + report);
+		}
+		System.out.println(report);
+	}
+
+	/**
+	 * Reads the samples of a run from its event file.
+	 *
+	 * @param file
+	 *            The JSON Lines event file.
+	 * @throws IOException
+	 *             If the file cannot be read.
+	 */
+	public void readEvents(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while (null != (line = reader.readLine())) {
+				Map<String, String> event = parse(line);
+				String type = event.get("type");
+				String duration = event.get("durationMs");
+				if (null == duration || !"passed".equals(event.get("outcome"))) {
+					continue;
+				}
+				if ("test_end".equals(type)) {
+					sample("test " + event.get("name"), Long.parseLong(duration));
+				} else if ("step".equals(type) && null != event.get("test")) {
+					// Steps outside a test, e.g. of the harness's own tests, are not gated
+					sample("step " + event.get("test") + " / " + event.get("name"), Long.parseLong(duration));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads the baseline p95 of each metric.
+	 *
+	 * @param file
+	 *            The baseline file; a missing file is an empty baseline.
+	 * @throws IOException
+	 *             If the file cannot be read.
+	 */
+	public void readBaseline(File file) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while (null != (line = reader.readLine())) {
+				int comma = line.lastIndexOf(',', line.lastIndexOf(',') - 1);
+				if (!line.startsWith("\"") || comma < 0) {
+					continue; // header or comment
+				}
+				String[] numbers = line.substring(comma + 1).split(",");
+				Metric metric = metric(line.substring(1, comma - 1).replace("\"\"", "\""));
+				metric.baselineP95 = Long.parseLong(numbers[0].trim());
+				metric.baselineSamples = Integer.parseInt(numbers[1].trim());
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes the p95 of each metric of the run as the new baseline.
+	 *
+	 * @param file
+	 *            The baseline file.
+	 * @throws IOException
+	 *             If the file cannot be written.
+	 */
+	public void writeBaseline(File file) throws IOException {
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write("metric,p95Ms,samples\n");
+			for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+				Metric metric = entry.getValue();
+				if (metric.samples.isEmpty()) {
+					continue;
+				}
+				writer.write("\"" + entry.getKey().replace("\"", "\"\"") + "\"," + metric.p95() + ","
+						+ metric.samples.size() + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Compares each metric of the run with the baseline.
+	 *
+	 * @param report
+	 *            Receives one line per metric and a summary.
+	 * @return The number of metrics which regressed.
+	 */
+	public int check(StringBuilder report) {
+		int regressions = 0;
+		int compared = 0;
+		StringBuilder details = new StringBuilder();
+
+		for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+			Metric metric = entry.getValue();
+			if (metric.samples.isEmpty()) {
+				continue;
+			}
+			long p95 = metric.p95();
+			String status;
+			if (metric.baselineP95 < 0) {
+				status = "NEW       ";
+			} else if (metric.samples.size() < minSamples || metric.baselineSamples < minSamples) {
+				status = "FEW       ";
+			} else {
+				compared++;
+				long allowed = Math.max(Math.round(metric.baselineP95 * (1 + tolerance)),
+						metric.baselineP95 + minSlackMillis);
+				if (p95 > allowed) {
+					status = "REGRESSED ";
+					regressions++;
+				} else {
+					status = "ok        ";
+				}
+			}
+			String change = metric.baselineP95 <= 0 ? "" : String.format(Locale.ROOT, " (%+.0f%%)",
+					100.0 * (p95 - metric.baselineP95) / metric.baselineP95);
+			details.append(status).append(entry.getKey()).append(": p95 ").append(p95).append(" ms")
+					.append(metric.baselineP95 < 0 ? "" : " vs baseline " + metric.baselineP95 + " ms" + change)
+					.append(", ").append(metric.samples.size()).append(" sample(s)\n");
+		}
+
+		report.append(String.format(Locale.ROOT,
+				"Performance gate: %d of %d metric(s) regressed (tolerance %.0f%%, slack %d ms, min %d samples)%n",
+				regressions, compared, tolerance * 100, minSlackMillis, minSamples));
+		report.append(details);
+		return regressions;
+	}
+
+	private void sample(String name, long millis) {
+		metric(name).samples.add(millis);
+	}
+
+	private Metric metric(String name) {
+		Metric metric = metrics.get(name);
+		if (null == metric) {
+			metric = new Metric();
+			metrics.put(name, metric);
+		}
+		return metric;
+	}
+
+	/**
+	 * Parses one flat JSON object as written by {@link EventStream}: string
+	 * and number values only.
+	 */
+	static Map<String, String> parse(String line) {
+		Map<String, String> values = new HashMap<String, String>();
+		int i = line.indexOf('{') + 1;
+		while (i > 0 && i < line.length()) {
+			int keyStart = line.indexOf('"', i);
+			if (keyStart < 0) {
+				break;
+			}
+			int keyEnd = line.indexOf('"', keyStart + 1);
+			String key = line.substring(keyStart + 1, keyEnd);
+			i = line.indexOf(':', keyEnd) + 1;
+
+			StringBuilder value = new StringBuilder();
+			if (line.charAt(i) == '"') {
+				for (i++; i < line.length() && line.charAt(i) != '"'; i++) {
+					char c = line.charAt(i);
+					if (c == '\\') {
+						c = line.charAt(++i);
+						switch (c) {
+						case 'n':
+							value.append('\n');
+							break;
+						case 'r':
+							value.append('\r');
+							break;
+						case 't':
+							value.append('\t');
+							break;
+						case 'u':
+							value.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+							i += 4;
+							break;
+						default:
+							value.append(c);
+						}
+					} else {
+						value.append(c);
+					}
+				}
+				i++;
+			} else {
+				for (; i < line.length() && line.charAt(i) != ',' && line.charAt(i) != '}'; i++) {
+					value.append(line.charAt(i));
+				}
+			}
+			values.put(key, value.toString().trim());
+			i = line.indexOf(',', i) + 1;
+		}
+		return values;
+	}
+}
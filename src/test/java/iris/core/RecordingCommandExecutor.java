@@ -0,0 +1,174 @@
+package iris.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+import org.openqa.selenium.logging.LocalLogs;
+import org.openqa.selenium.logging.NeedsLocalLogs;
+import org.openqa.selenium.remote.BeanToJsonConverter;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Sends WebDriver commands through another executor and records each
+ *         command and its response, for a {@link ReplayCommandExecutor} to
+ *         serve later. The recording is a gzipped JSON Lines file with one
+ *         line per command: its name and parameters, the session id, status
+ *         and value of the response as received from the remote end, and the
+ *         round trip time. A command whose round trip fails is recorded with
+ *         the failure instead of a response. The file is closed when the
+ *         session quits, or when the JVM exits.
+ *
+ */
+public class RecordingCommandExecutor implements CommandExecutor, NeedsLocalLogs {
+
+	private static final Logger logger = LoggerFactory.getLogger(RecordingCommandExecutor.class);
+
+	/** Recorders whose session has not quit yet. */
+	private static final Set<RecordingCommandExecutor> open = Collections
+			.newSetFromMap(new ConcurrentHashMap<RecordingCommandExecutor, Boolean>());
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				for (RecordingCommandExecutor recorder : open) {
+					recorder.close();
+				}
+			}
+		}, "webdriver-recording-close"));
+	}
+
+	/** Sends the commands. */
+	private final CommandExecutor delegate;
+
+	/** The recording. */
+	private final File file;
+
+	/** Guards the writer. */
+	private final Lock lock = new ReentrantLock();
+
+	/** Writes the recording, or null once closed. */
+	private Writer writer;
+
+	/** Number of commands recorded. */
+	private int commands;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param delegate
+	 *            Sends the commands.
+	 * @param file
+	 *            The recording; an existing file is replaced.
+	 * @throws IOException
+	 *             If the recording cannot be created.
+	 */
+	public RecordingCommandExecutor(CommandExecutor delegate, File file) throws IOException {
+		this.delegate = delegate;
+		this.file = file;
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		this.writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), "UTF-8");
+		open.add(this);
+	}
+
+	public Response execute(Command command) throws IOException {
+		long start = System.nanoTime();
+		Response response;
+		try {
+			response = delegate.execute(command);
+		} catch (IOException e) {
+			recordFailure(command, start, e);
+			throw e;
+		} catch (RuntimeException e) {
+			recordFailure(command, start, e);
+			throw e;
+		}
+
+		Map<String, Object> line = new LinkedHashMap<String, Object>();
+		line.put("name", command.getName());
+		line.put("params", command.getParameters());
+		line.put("sessionId", null == response ? null : response.getSessionId());
+		line.put("status", null == response ? null : response.getStatus());
+		line.put("value", null == response ? null : response.getValue());
+		line.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		write(new BeanToJsonConverter().convert(line));
+
+		if (DriverCommand.QUIT.equals(command.getName())) {
+			close();
+		}
+		return response;
+	}
+
+	public void setLocalLogs(LocalLogs logs) {
+		if (delegate instanceof NeedsLocalLogs) {
+			((NeedsLocalLogs) delegate).setLocalLogs(logs);
+		}
+	}
+
+	/**
+	 * Records a command whose round trip failed, so that a replay fails it at
+	 * the same point.
+	 */
+	private void recordFailure(Command command, long start, Exception e) {
+		Map<String, Object> line = new LinkedHashMap<String, Object>();
+		line.put("name", command.getName());
+		line.put("params", command.getParameters());
+		line.put("exception", e instanceof IOException ? "IOException" : e.getClass().getSimpleName());
+		line.put("error", String.valueOf(e.getMessage()));
+		line.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		write(new BeanToJsonConverter().convert(line));
+	}
+
+	private void write(String line) {
+		lock.lock();
+		try {
+			if (null != writer) {
+				writer.write(line);
+				writer.write('\n');
+				commands++;
+			}
+		} catch (IOException e) {
+			logger.error("Failed to record command to " + file + "\n" + e.getMessage());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the recording. Commands sent afterwards are not recorded.
+	 */
+	void close() {
+		lock.lock();
+		try {
+			if (null == writer) {
+				return;
+			}
+			writer.close();
+			logger.info("Recorded {} command(s) to {}", commands, file);
+		} catch (IOException e) {
+			logger.error("Failed to close recording " + file + "\n" + e.getMessage());
+		} finally {
+			writer = null;
+			open.remove(this);
+			lock.unlock();
+		}
+	}
+}
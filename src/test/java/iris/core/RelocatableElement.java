@@ -0,0 +1,153 @@
+package iris.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.internal.Locatable;
+import org.openqa.selenium.internal.WrapsElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         A web element handle which remembers how it was found. When a call
+ *         on the element fails because it has gone stale (the page re-rendered
+ *         it), the element is found again with a single findElement in the
+ *         same search context and the call is repeated, at most
+ *         -DrelocateRetries (default 2) times per call. A stale element
+ *         therefore costs one round trip rather than a fresh wait; if the
+ *         element is not back yet the NoSuchElementException is thrown for
+ *         the caller's wait to poll again.
+ *
+ *         The handle also implements WrapsElement, so it can be passed to
+ *         scripts, and Locatable, so it can be used with Actions. The search
+ *         context may itself be a relocatable element. Two handles are equal
+ *         when they find their elements by the same locator in the same search
+ *         context, and the hash code is the locator's, so handles can be kept
+ *         in hash sets and maps without a round trip per lookup.
+ *
+ */
+public final class RelocatableElement implements InvocationHandler {
+
+	private static final Logger logger = LoggerFactory.getLogger(RelocatableElement.class);
+
+	/** Interfaces implemented by every handle. */
+	private static final Class<?>[] INTERFACES = { WebElement.class, WrapsElement.class, Locatable.class };
+
+	/** Where the element is found. */
+	private final SearchContext searchContext;
+
+	/** How the element is found. */
+	private final By locator;
+
+	/** Most times the element is found again within one call. */
+	private final int retries;
+
+	/** The element as last found, or null if it has not been found yet. */
+	private volatile WebElement element;
+
+	private RelocatableElement(SearchContext searchContext, By locator, WebElement element, int retries) {
+		this.searchContext = searchContext;
+		this.locator = locator;
+		this.element = element;
+		this.retries = retries;
+	}
+
+	/**
+	 * Creates a handle to an element which has already been found.
+	 *
+	 * @param searchContext
+	 *            The search context the element was found in.
+	 * @param locator
+	 *            The locator the element was found by.
+	 * @param element
+	 *            The element, or null to find it on first use.
+	 * @return The handle, or the element itself if it already is one.
+	 */
+	public static WebElement wrap(SearchContext searchContext, By locator, WebElement element) {
+		if (null != element && Proxy.isProxyClass(element.getClass())
+				&& Proxy.getInvocationHandler(element) instanceof RelocatableElement) {
+			return element;
+		}
+		return (WebElement) Proxy.newProxyInstance(RelocatableElement.class.getClassLoader(), INTERFACES,
+				new RelocatableElement(searchContext, locator, element, Integer.getInteger("relocateRetries", 2)));
+	}
+
+	/**
+	 * Creates a handle to an element which is found on first use.
+	 *
+	 * @param searchContext
+	 *            The search context to find the element in.
+	 * @param locator
+	 *            The locator of the element.
+	 * @return The handle.
+	 */
+	public static WebElement lazy(SearchContext searchContext, By locator) {
+		return wrap(searchContext, locator, null);
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if ("toString".equals(name) && null == args) {
+			return "Relocatable element " + locator;
+		}
+		if ("hashCode".equals(name) && null == args) {
+			// No round trip, and the same after the element is found again
+			return locator.hashCode();
+		}
+		if ("equals".equals(name) && null != args && 1 == args.length) {
+			Object other = args[0];
+			if (proxy == other) {
+				return true;
+			}
+			if (null != other && Proxy.isProxyClass(other.getClass())
+					&& Proxy.getInvocationHandler(other) instanceof RelocatableElement) {
+				RelocatableElement handle = (RelocatableElement) Proxy.getInvocationHandler(other);
+				return locator.equals(handle.locator) && searchContext.equals(handle.searchContext);
+			}
+			return null != other && resolve().equals(other);
+		}
+		if ("getWrappedElement".equals(name)) {
+			return resolve();
+		}
+
+		for (int attempt = 0;; attempt++) {
+			WebElement current = resolve();
+			try {
+				return method.invoke(current, args);
+			} catch (InvocationTargetException e) {
+				if (!(e.getCause() instanceof StaleElementReferenceException)) {
+					throw e.getCause();
+				}
+				// Forget the stale element even if out of retries, so the
+				// next call finds it again
+				if (element == current) {
+					element = null;
+				}
+				if (attempt >= retries) {
+					throw e.getCause();
+				}
+				logger.debug("Element {} went stale, finding it again", locator);
+			}
+		}
+	}
+
+	/**
+	 * Get the element, finding it if it has not been found or went stale.
+	 */
+	private WebElement resolve() {
+		WebElement current = element;
+		if (null == current) {
+			current = searchContext.findElement(locator);
+			element = current;
+		}
+		return current;
+	}
+}
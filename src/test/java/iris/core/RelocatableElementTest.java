@@ -0,0 +1,70 @@
+package iris.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * @author vickery_b
+ *
+ *         Checks that a handle forgets an element which went stale, even when
+ *         it is out of retries, and that hashing a handle does not find its
+ *         element.
+ *
+ */
+public class RelocatableElementTest {
+
+	private FakeRemoteEnd remote;
+
+	private RemoteWebDriver driver;
+
+	@Before
+	public void open() {
+		remote = new FakeRemoteEnd(0);
+		driver = new RemoteWebDriver(remote, new DesiredCapabilities());
+	}
+
+	@After
+	public void close() {
+		System.clearProperty("relocateRetries");
+		driver.quit();
+	}
+
+	@Test
+	public void findsAgainAfterStaleWithoutRetries() {
+		System.setProperty("relocateRetries", "0");
+		WebElement handle = RelocatableElement.lazy(driver, By.id("filter"));
+		remote.stale(DriverCommand.CLICK_ELEMENT, 1);
+		try {
+			handle.click();
+			fail("A stale element with no retries left should be thrown");
+		} catch (StaleElementReferenceException e) {
+			// expected
+		}
+		handle.click();
+
+		assertEquals(2, remote.count(DriverCommand.FIND_ELEMENT));
+	}
+
+	@Test
+	public void hashesWithoutFinding() {
+		WebElement handle = RelocatableElement.lazy(driver, By.id("filter"));
+		int hash = handle.hashCode();
+		handle.click();
+		remote.stale(DriverCommand.CLICK_ELEMENT, 1);
+		handle.click();
+
+		assertEquals(hash, handle.hashCode());
+		assertEquals(handle, RelocatableElement.lazy(driver, By.id("filter")));
+		assertEquals(2, remote.count(DriverCommand.FIND_ELEMENT));
+	}
+}
@@ -0,0 +1,48 @@
+package iris.core;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Runs each test method several times in a row, each time with its own
+ *         session and time budget, so that one run of the suite gives several
+ *         samples of every test and wait step for the
+ *         {@link PerformanceGate}. The number of runs is set with the
+ *         -Drepeats VM arg (default 1, i.e. no repeats). The test stops at the
+ *         first run which fails.
+ *
+ */
+public class RepeatRule implements TestRule {
+
+	private static final Logger logger = LoggerFactory.getLogger(RepeatRule.class);
+
+	/** Number of times each test is run. */
+	private final int repeats;
+
+	/**
+	 * Constructor, using the -Drepeats VM arg.
+	 */
+	public RepeatRule() {
+		this.repeats = Math.max(1, Integer.getInteger("repeats", 1));
+	}
+
+	public Statement apply(final Statement base, final Description description) {
+		if (repeats <= 1) {
+			return base;
+		}
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				for (int run = 1; run <= repeats; run++) {
+					logger.info("Run {} of {} of {}", run, repeats, description.getDisplayName());
+					base.evaluate();
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,214 @@
+package iris.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.BeanToJsonConverter;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.JsonToBeanConverter;
+import org.openqa.selenium.remote.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Serves the responses of a session recorded by a
+ *         {@link RecordingCommandExecutor}, in order, without a browser. Each
+ *         command sent must be the one recorded at that point, with the same
+ *         parameters; otherwise the replay has diverged and a
+ *         WebDriverException names the first difference (the driver reports
+ *         it as the cause of an UnreachableBrowserException). This makes a
+ *         recording a regression
+ *         test for changes to the helpers and the wait engine: a change that
+ *         sends the same commands replays in milliseconds, and one that does
+ *         not fails at the first command it changed.
+ *
+ *         Parameters which depend on the wall clock are not compared: the new
+ *         session's capabilities, the values of the timeout commands and the
+ *         last argument of an asynchronous script, which by the convention of
+ *         the harness scripts is the time the script may wait. A command which
+ *         failed when it was recorded fails the same way when replayed.
+ *
+ *         Responses are served at once, unless -Dwebdriver.replay.timing=true
+ *         is given, in which case each takes as long as it originally did.
+ *
+ */
+public class ReplayCommandExecutor implements CommandExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReplayCommandExecutor.class);
+
+	/** Commands whose parameters are timeouts, and so are not compared. */
+	private static final List<String> TIMEOUT_COMMANDS = Arrays.asList(DriverCommand.SET_TIMEOUT,
+			DriverCommand.SET_SCRIPT_TIMEOUT, DriverCommand.IMPLICITLY_WAIT);
+
+	/** The recording. */
+	private final File file;
+
+	/** The recorded commands, in order. */
+	private final List<Map<?, ?>> recorded = new ArrayList<Map<?, ?>>();
+
+	/** Whether each response takes as long as it originally did. */
+	private final boolean timing;
+
+	/** Guards the position in the recording. */
+	private final Lock lock = new ReentrantLock();
+
+	/** Index of the next command to serve. */
+	private int next;
+
+	/**
+	 * Loads a recording, using -Dwebdriver.replay.timing.
+	 *
+	 * @param file
+	 *            The recording.
+	 * @throws IOException
+	 *             If the recording cannot be read.
+	 */
+	public ReplayCommandExecutor(File file) throws IOException {
+		this(file, Boolean.getBoolean("webdriver.replay.timing"));
+	}
+
+	/**
+	 * Loads a recording.
+	 *
+	 * @param file
+	 *            The recording.
+	 * @param timing
+	 *            True for each response to take as long as it originally did.
+	 * @throws IOException
+	 *             If the recording cannot be read.
+	 */
+	public ReplayCommandExecutor(File file, boolean timing) throws IOException {
+		this.file = file;
+		this.timing = timing;
+		JsonToBeanConverter converter = new JsonToBeanConverter();
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+		try {
+			String line;
+			while (null != (line = reader.readLine())) {
+				if (!line.trim().isEmpty()) {
+					recorded.add(converter.convert(Map.class, line));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		logger.debug("Replaying {} command(s) from {}", recorded.size(), file);
+	}
+
+	public Response execute(Command command) throws IOException {
+		Map<?, ?> entry;
+		lock.lock();
+		try {
+			if (next >= recorded.size()) {
+				throw new WebDriverException("Replay of " + file.getName() + " diverged at command " + (next + 1)
+						+ ": " + command.getName() + " was sent after the end of the recording");
+			}
+			entry = recorded.get(next);
+			check(entry, command);
+			next++;
+		} finally {
+			lock.unlock();
+		}
+
+		if (timing && entry.get("elapsedMs") instanceof Number) {
+			try {
+				Thread.sleep(((Number) entry.get("elapsedMs")).longValue());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (null != entry.get("error")) {
+			// The round trip failed when it was recorded
+			if ("IOException".equals(entry.get("exception"))) {
+				throw new IOException(String.valueOf(entry.get("error")));
+			}
+			throw new WebDriverException(String.valueOf(entry.get("error")));
+		}
+
+		Response response = new Response();
+		Object sessionId = entry.get("sessionId");
+		response.setSessionId(null == sessionId ? null : String.valueOf(sessionId));
+		Object status = entry.get("status");
+		response.setStatus(status instanceof Number ? ((Number) status).intValue() : null);
+		response.setValue(entry.get("value"));
+
+		if (DriverCommand.QUIT.equals(command.getName()) && next < recorded.size()) {
+			logger.warn("Replay of {} quit with {} recorded command(s) left", file.getName(), recorded.size() - next);
+		}
+		return response;
+	}
+
+	/**
+	 * Get the number of recorded commands not served yet.
+	 *
+	 * @return The number of commands.
+	 */
+	public int getRemaining() {
+		lock.lock();
+		try {
+			return recorded.size() - next;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Checks that a command is the one recorded at this point.
+	 */
+	private void check(Map<?, ?> entry, Command command) {
+		String expected = String.valueOf(entry.get("name"));
+		if (!expected.equals(command.getName())) {
+			throw new WebDriverException("Replay of " + file.getName() + " diverged at command " + (next + 1)
+					+ ": expected " + expected + " but " + command.getName() + " was sent");
+		}
+		if (DriverCommand.NEW_SESSION.equals(expected) || TIMEOUT_COMMANDS.contains(expected)) {
+			return;
+		}
+		// Compare through JSON, so numbers and arrays compare as recorded.
+		Map<?, ?> params = null == command.getParameters() ? null
+				: new JsonToBeanConverter().convert(Map.class,
+						new BeanToJsonConverter().convert(command.getParameters()));
+		Map<?, ?> expectedParams = (Map<?, ?>) entry.get("params");
+		if (DriverCommand.EXECUTE_ASYNC_SCRIPT.equals(expected)) {
+			params = withoutTimeout(params);
+			expectedParams = withoutTimeout(expectedParams);
+		}
+		if (null == params ? null != expectedParams && !expectedParams.isEmpty()
+				: !params.equals(expectedParams)) {
+			throw new WebDriverException("Replay of " + file.getName() + " diverged at command " + (next + 1) + " ("
+					+ expected + "): expected parameters " + expectedParams + " but sent " + params);
+		}
+	}
+
+	/**
+	 * Get the parameters of an asynchronous script without its last argument,
+	 * the time it may wait.
+	 */
+	private static Map<?, ?> withoutTimeout(Map<?, ?> params) {
+		if (null == params || !(params.get("args") instanceof List) || ((List<?>) params.get("args")).isEmpty()) {
+			return params;
+		}
+		List<?> args = (List<?>) params.get("args");
+		Map<Object, Object> copy = new HashMap<Object, Object>(params);
+		copy.put("args", new ArrayList<Object>(args.subList(0, args.size() - 1)));
+		return copy;
+	}
+}
@@ -0,0 +1,95 @@
+package iris.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openqa.selenium.By;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
+
+/**
+ * @author vickery_b
+ *
+ *         Records a session driven through the wait helpers against a slow
+ *         {@link FakeRemoteEnd} and replays it at once, so that the timeouts
+ *         the helpers send differ between the recording and the replay. The
+ *         helpers run within one explicit step, so every wait but the first
+ *         starts after round trips have used some of the step.
+ *
+ */
+public class ReplayCommandExecutorTest {
+
+	/** A test with no test methods of its own, to call the helpers on. */
+	static class Helpers extends IrisAbstractSelenium {
+	}
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replaysFlowAndWaitsDespiteTimeouts() throws Exception {
+		File recording = folder.newFile("session.jsonl.gz");
+		FakeRemoteEnd remote = new FakeRemoteEnd(20);
+		drive(new RecordingCommandExecutor(remote, recording));
+
+		ReplayCommandExecutor replay = new ReplayCommandExecutor(recording, false);
+		drive(replay);
+		assertEquals(0, replay.getRemaining());
+	}
+
+	@Test
+	public void replaysFailedRoundTrips() throws Exception {
+		File recording = folder.newFile("session.jsonl.gz");
+		FakeRemoteEnd remote = new FakeRemoteEnd(0);
+		remote.fail(DriverCommand.FIND_ELEMENT, 1);
+		drive(new RecordingCommandExecutor(remote, recording));
+		assertEquals(3, remote.count(DriverCommand.FIND_ELEMENT));
+
+		final ReplayCommandExecutor replay = new ReplayCommandExecutor(recording, false);
+		final AtomicInteger finds = new AtomicInteger();
+		drive(new CommandExecutor() {
+			public Response execute(Command command) throws IOException {
+				if (DriverCommand.FIND_ELEMENT.equals(command.getName())) {
+					finds.incrementAndGet();
+				}
+				return replay.execute(command);
+			}
+		});
+		assertEquals(0, replay.getRemaining());
+		assertEquals(3, finds.get());
+	}
+
+	/**
+	 * Runs a batched flow, then waits for an element with a MutationObserver
+	 * and by polling, all in one step.
+	 */
+	private static void drive(CommandExecutor executor) {
+		RemoteWebDriver driver = new RemoteWebDriver(executor, new DesiredCapabilities());
+		Helpers helpers = new Helpers();
+		helpers.bindSession(driver);
+		try {
+			helpers.beginStep("apply filter", 30);
+			helpers.waitForLoadedIn(driver, By.id("map"));
+			helpers.flow(driver).click(By.id("filter")).setText(By.id("name"), "DWITHIN").click(By.id("apply"))
+					.run();
+			helpers.setWaitMode(WaitMode.EVENT);
+			helpers.waitForLoadedIn(driver, By.id("result")).click();
+			helpers.setWaitMode(WaitMode.POLL);
+			helpers.waitForLoadedIn(driver, By.id("result")).click();
+			helpers.endStep();
+		} finally {
+			helpers.bindSession(null);
+			driver.quit();
+		}
+	}
+}
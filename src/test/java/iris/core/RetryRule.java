@@ -0,0 +1,123 @@
+package iris.core;
+
+import org.junit.internal.AssumptionViolatedException;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.openqa.selenium.NoSuchSessionException;
+import org.openqa.selenium.SessionNotCreatedException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.remote.UnreachableBrowserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Re-runs a failed test method, within the same run, when the failure
+ *         looks like a grid or timing hiccup rather than a real defect. The
+ *         browser session is kept open between attempts, so a retry starts on
+ *         a warm session instead of waiting for a new one from the grid.
+ *
+ *         Stale elements, WebDriver timeouts and lost or unreachable sessions
+ *         are retried; assertion failures, time budget aborts and anything
+ *         else are not. The number of retries is set with the -Dretries VM arg
+ *         (default 1). Each test's {@link FlakinessScores flakiness score} is
+ *         updated after it runs. With -Dquarantine=true a quarantined test
+ *         which still fails with a transient error is reported as skipped
+ *         rather than failing the build; its assertion failures always fail.
+ *
+ */
+public class RetryRule implements TestRule {
+
+	private static final Logger logger = LoggerFactory.getLogger(RetryRule.class);
+
+	/** The test whose session is kept warm between attempts. */
+	private final IrisSeleniumBase selenium;
+
+	/** Number of times a failed test may be retried. */
+	private final int retries;
+
+	/** Whether failures of quarantined tests are reported as skipped. */
+	private final boolean quarantine;
+
+	/**
+	 * Constructor, using the -Dretries and -Dquarantine VM args.
+	 *
+	 * @param selenium
+	 *            The test whose session is kept warm between attempts.
+	 */
+	public RetryRule(IrisSeleniumBase selenium) {
+		this.selenium = selenium;
+		this.retries = Integer.getInteger("retries", 1);
+		this.quarantine = Boolean.getBoolean("quarantine");
+	}
+
+	public Statement apply(final Statement base, final Description description) {
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				String test = description.getDisplayName();
+				FlakinessScores scores = FlakinessScores.get();
+				boolean quarantined = quarantine && scores.isQuarantined(test);
+
+				for (int attempt = 0;; attempt++) {
+					boolean lastAttempt = attempt >= retries;
+					boolean retrying = false;
+					selenium.setRetainSession(!lastAttempt);
+					try {
+						base.evaluate();
+						scores.record(test, attempt > 0);
+						return;
+					} catch (AssumptionViolatedException e) {
+						throw e;
+					} catch (Throwable t) {
+						boolean retriable = isTransient(t);
+						if (retriable && !lastAttempt) {
+							logger.warn("Retrying {} on a warm session after transient failure: {}", test, t.toString());
+							EventStream.emit("retry", test, -1, t.getClass().getSimpleName(), t.getMessage());
+							retrying = true;
+							continue;
+						}
+						if (retriable) {
+							scores.record(test, true);
+						}
+						if (quarantined && retriable) {
+							logger.warn("{} is quarantined (flakiness {}), reporting failure as skipped: {}", test,
+									scores.score(test), t.toString());
+							throw new AssumptionViolatedException("Quarantined flaky test failed: " + t);
+						}
+						throw t;
+					} finally {
+						if (!retrying) {
+							selenium.releaseSession();
+						}
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Checks whether a failure is worth a retry.
+	 *
+	 * @param failure
+	 *            The failure.
+	 * @return True if the failure, or any of its causes, is a stale element,
+	 *         WebDriver timeout or lost session.
+	 */
+	public static boolean isTransient(Throwable failure) {
+		for (Throwable t = failure; null != t; t = t.getCause()) {
+			if (t instanceof AssertionError || t instanceof TimeBudgetExceededException) {
+				return false;
+			}
+			if (t instanceof StaleElementReferenceException || t instanceof TimeoutException
+					|| t instanceof UnreachableBrowserException || t instanceof NoSuchSessionException
+					|| t instanceof SessionNotCreatedException) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,165 @@
+package iris.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Collects the outcome and timing of each row of a data-driven test.
+ *         Results are written as they arrive to
+ *         target/failsafe-reports/rows-&lt;name&gt;.csv and to the
+ *         {@link EventStream}; only failures are kept in memory.
+ *
+ */
+public class RowResults {
+
+	private static final Logger logger = LoggerFactory.getLogger(RowResults.class);
+
+	/** Most failures listed in the summary. */
+	private static final int SUMMARY_FAILURES = 10;
+
+	/** Name of the data-driven run. */
+	private final String name;
+
+	/** The report file, or null if it could not be opened. */
+	private Writer writer;
+
+	/** Number of rows which passed. */
+	private int passed;
+
+	/** Descriptions of the rows which failed. */
+	private final List<String> failures = new ArrayList<String>();
+
+	/** Guards the counts and the report file. */
+	private final Lock lock = new ReentrantLock();
+
+	/**
+	 * Constructor, starting a new report.
+	 * 
+	 * @param name
+	 *            Name of the data-driven run, used in the report file name.
+	 */
+	public RowResults(String name) {
+		this.name = name;
+		File file = new File("target/failsafe-reports/rows-" + name + ".csv");
+		try {
+			file.getParentFile().mkdirs();
+			writer = new FileWriter(file);
+			writer.write("row,outcome,durationMs,error\n");
+		} catch (IOException e) {
+			logger.error("Failed to open row report\n" + e.getMessage());
+		}
+	}
+
+	/**
+	 * Records a row which passed.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @param millis
+	 *            Milliseconds the row took.
+	 */
+	public void passed(DataRows.Row row, long millis) {
+		lock.lock();
+		try {
+			passed++;
+			write(row, "passed", millis, null);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records a row which failed.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @param millis
+	 *            Milliseconds the row took.
+	 * @param failure
+	 *            Why it failed.
+	 */
+	public void failed(DataRows.Row row, long millis, Throwable failure) {
+		lock.lock();
+		try {
+			failures.add(row + ": " + failure);
+			write(row, "failed", millis, failure.toString());
+			logger.info("Fail - {} of {}: {}", row, name, failure.toString());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The number of rows which failed.
+	 */
+	public int getFailureCount() {
+		lock.lock();
+		try {
+			return failures.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return A description of the results, listing the first failures.
+	 */
+	public String summary() {
+		lock.lock();
+		try {
+			StringBuilder summary = new StringBuilder();
+			summary.append(name).append(": ").append(passed).append(" row(s) passed, ").append(failures.size())
+					.append(" failed");
+			for (int i = 0; i < failures.size() && i < SUMMARY_FAILURES; i++) {
+				summary.append("\n  ").append(failures.get(i));
+			}
+			return summary.toString();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the report file.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			if (null != writer) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					logger.error("Failed to close row report\n" + e.getMessage());
+				}
+				writer = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void write(DataRows.Row row, String outcome, long millis, String error) {
+		EventStream.emit("row", name + " row " + row.getIndex(), millis, outcome, error);
+		if (null == writer) {
+			return;
+		}
+		try {
+			writer.write(row.getIndex() + "," + outcome + "," + millis + ","
+					+ (null == error ? "" : "\"" + error.replace("\"", "'").replace("\n", " ") + "\"") + "\n");
+			writer.flush();
+		} catch (IOException e) {
+			logger.error("Failed to write row report\n" + e.getMessage());
+		}
+	}
+}
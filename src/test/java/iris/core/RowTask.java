@@ -0,0 +1,22 @@
+package iris.core;
+
+/**
+ * @author vickery_b
+ *
+ *         The work done for one row of test data, see
+ *         {@link IrisAbstractSelenium#runForEachRow}. The task runs on a
+ *         worker thread whose own browser session is returned by getDriver(),
+ *         so the usual helpers can be used inside it.
+ */
+public interface RowTask {
+
+	/**
+	 * Runs the task for one row. Throwing anything fails the row.
+	 * 
+	 * @param row
+	 *            The row of data.
+	 * @throws Exception
+	 *             If the row fails.
+	 */
+	void run(DataRows.Row row) throws Exception;
+}
@@ -0,0 +1,90 @@
+package iris.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openqa.selenium.By;
+
+/**
+ * @author vickery_b
+ *
+ *         Translates Selenium locators into a form that can be evaluated
+ *         inside the browser by injected JavaScript. Only the locator
+ *         strategies that have a direct DOM equivalent are supported; anything
+ *         else (link text, partial link text, custom locators) must be resolved
+ *         through the WebDriver as normal.
+ *
+ */
+public final class ScriptLocator {
+
+	/**
+	 * JavaScript function declaration which resolves a translated locator,
+	 * within a root node, to an array of matching elements. Scripts which take
+	 * translated locators as arguments should include this declaration and
+	 * call irisFind(root, locator).
+	 */
+	public static final String FINDER = "function irisFind(root, loc) {"
+			+ "  root = root || document;"
+			+ "  var all = function(list) { return Array.prototype.slice.call(list); };"
+			+ "  switch (loc.using) {"
+			+ "  case 'xpath':"
+			+ "    var result = document.evaluate(loc.value, root, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null);"
+			+ "    var nodes = [];"
+			+ "    for (var i = 0; i < result.snapshotLength; i++) { nodes.push(result.snapshotItem(i)); }"
+			+ "    return nodes;"
+			+ "  case 'css': return all(root.querySelectorAll(loc.value));"
+			+ "  case 'id': return all(root.querySelectorAll('[id]')).filter(function(e) { return e.id === loc.value; });"
+			+ "  case 'name': return all(root.querySelectorAll('[name]')).filter(function(e) { return e.getAttribute('name') === loc.value; });"
+			+ "  case 'class': return all(root.getElementsByClassName(loc.value));"
+			+ "  case 'tag': return all(root.getElementsByTagName(loc.value));"
+			+ "  }"
+			+ "  return [];"
+			+ "}";
+
+	/**
+	 * Prefixes produced by {@link By#toString()} mapped to the strategy names
+	 * understood by {@link #FINDER}.
+	 */
+	private static final String[][] STRATEGIES = { { "By.xpath: ", "xpath" }, { "By.cssSelector: ", "css" },
+			{ "By.id: ", "id" }, { "By.name: ", "name" }, { "By.className: ", "class" },
+			{ "By.tagName: ", "tag" } };
+
+	private ScriptLocator() {
+	}
+
+	/**
+	 * Translates the specified locator into a script argument of the form
+	 * {using: ..., value: ...}.
+	 *
+	 * @param locator
+	 *            The locator to translate.
+	 * @return The script argument, or null if the locator cannot be evaluated
+	 *         inside the browser.
+	 */
+	public static Map<String, String> toScriptArgument(By locator) {
+		String description = locator.toString();
+
+		for (String[] strategy : STRATEGIES) {
+			if (description.startsWith(strategy[0])) {
+				Map<String, String> argument = new HashMap<String, String>();
+				argument.put("using", strategy[1]);
+				argument.put("value", description.substring(strategy[0].length()));
+				return argument;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Checks whether the specified locator can be evaluated inside the
+	 * browser.
+	 *
+	 * @param locator
+	 *            The locator to check.
+	 * @return True if the locator can be translated. False otherwise.
+	 */
+	public static boolean isSupported(By locator) {
+		return null != toScriptArgument(locator);
+	}
+}
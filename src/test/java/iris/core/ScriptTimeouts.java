@@ -0,0 +1,99 @@
+package iris.core;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Lengthens the script timeout of a session for one asynchronous
+ *         script and puts it back afterwards, so a helper which waits in the
+ *         browser does not leave the session with its own timeout. WebDriver
+ *         cannot read the timeout back, and its default differs between
+ *         drivers (0 according to Selenium's own javadoc), so the timeout of a
+ *         session is known only once it has been set through this class; set
+ *         it with {@link #set} rather than through the driver so the helpers
+ *         can put it back. The first script of a session always sets the
+ *         timeout; after that a timeout which is already long enough is left
+ *         alone, so most scripts cost no extra round trips.
+ *
+ */
+public final class ScriptTimeouts {
+
+	private static final Logger logger = LoggerFactory.getLogger(ScriptTimeouts.class);
+
+	/** Returned by {@link #atLeast} when the timeout before was not known. */
+	static final long UNKNOWN = -1;
+
+	/** The script timeout of each session, in milliseconds. */
+	private static final Map<WebDriver, Long> timeouts = Collections
+			.synchronizedMap(new WeakHashMap<WebDriver, Long>());
+
+	private ScriptTimeouts() {
+	}
+
+	/**
+	 * Sets the script timeout of a session.
+	 *
+	 * @param driver
+	 *            The session.
+	 * @param millis
+	 *            The timeout, in milliseconds.
+	 */
+	public static void set(WebDriver driver, long millis) {
+		driver.manage().timeouts().setScriptTimeout(millis, TimeUnit.MILLISECONDS);
+		timeouts.put(driver, millis);
+	}
+
+	/**
+	 * Makes sure the script timeout of a session is at least the specified
+	 * time. A timeout which is not known yet is always set.
+	 *
+	 * @param driver
+	 *            The session.
+	 * @param millis
+	 *            The shortest timeout the script needs, in milliseconds.
+	 * @return The timeout before, to pass to {@link #restore}, or
+	 *         {@link #UNKNOWN}.
+	 */
+	public static long atLeast(WebDriver driver, long millis) {
+		long previous = get(driver);
+		if (previous < millis) {
+			set(driver, millis);
+		}
+		return previous;
+	}
+
+	/**
+	 * Puts back the script timeout of a session. A timeout which was not
+	 * known before is left as {@link #atLeast} set it, as there is nothing to
+	 * put back. Failures are logged and ignored, so they do not hide the
+	 * outcome of the script.
+	 *
+	 * @param driver
+	 *            The session.
+	 * @param millis
+	 *            The timeout returned by {@link #atLeast}.
+	 */
+	public static void restore(WebDriver driver, long millis) {
+		if (UNKNOWN == millis || get(driver) == millis) {
+			return;
+		}
+		try {
+			set(driver, millis);
+		} catch (RuntimeException e) {
+			logger.debug("Could not restore the script timeout: {}", e.getMessage());
+		}
+	}
+
+	private static long get(WebDriver driver) {
+		Long millis = timeouts.get(driver);
+		return null == millis ? UNKNOWN : millis;
+	}
+}
@@ -2,10 +2,7 @@ package iris.core;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 
-import org.apache.commons.io.FileUtils;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 import org.openqa.selenium.OutputType;
@@ -50,27 +47,26 @@ public class SeleniumResultProcessor extends TestWatcher
     {
         String methodName = description.getClassName() + "#" + description.getMethodName();
         log.info("Taking screenshot of failed test : " + methodName);
-        File srnShot = ((TakesScreenshot) driver).getScreenshotAs(OutputType.FILE);
-        String filenameSS = "target/failsafe-reports/ScreenShot-" + methodName + ".png";
+        ArtifactStore store = ArtifactStore.get();
         try
         {
-            FileUtils.copyFile(srnShot, new File(filenameSS));
+            byte[] srnShot = ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES);
+            File stored = store.put("ScreenShot-" + methodName + ".png", srnShot);
+            log.info("Screenshot taken of failed test: " + stored);
         }
         catch (IOException e1)
         {
-            log.error("Failed to move screenshot\n" + e1.getStackTrace());
+            log.error("Failed to store screenshot\n" + e1.getMessage());
         }
 
-        log.info("Screenshot taken of failed test: " + filenameSS);
-
-        String filenameSrc = "target/failsafe-reports/SOURCE-" + methodName + ".html";
         try
         {
-            Files.write(Paths.get(filenameSrc), driver.getPageSource().getBytes());
+            File stored = store.put("SOURCE-" + methodName + ".html", driver.getPageSource().getBytes());
+            log.info("Page source stored for failed test: " + stored);
         }
         catch (IOException e1)
         {
-            log.error("Failed to create source file\n" + e1.getStackTrace());
+            log.error("Failed to store source file\n" + e1.getMessage());
         }
 
         super.failed(e, description);
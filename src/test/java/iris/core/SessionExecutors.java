@@ -0,0 +1,101 @@
+package iris.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Creates the executors that drive browser sessions from worker
+ *         threads. A session's thread spends nearly all its time blocked on
+ *         the HTTP call of a WebDriver command, so on Java 21 and later each
+ *         task gets its own virtual thread: hundreds of sessions then need
+ *         only a few carrier threads and a small stack each. Earlier Java
+ *         versions, or -DvirtualThreads=false, get a fixed pool of platform
+ *         threads instead.
+ *
+ *         Virtual threads are created by reflection so the harness still
+ *         builds for Java 8. The harness holds no monitor while blocking on
+ *         I/O, which would pin a virtual thread to its carrier; locks that
+ *         are held during file access are ReentrantLocks. Run with
+ *         -Djdk.tracePinnedThreads=short to find pinning elsewhere, e.g. in
+ *         the driver libraries.
+ *
+ */
+public final class SessionExecutors {
+
+	private static final Logger logger = LoggerFactory.getLogger(SessionExecutors.class);
+
+	private SessionExecutors() {
+	}
+
+	/**
+	 * Creates an executor for tasks which each drive a browser session.
+	 *
+	 * @param name
+	 *            Prefix of the thread names.
+	 * @param threads
+	 *            Number of tasks which run at once when platform threads are
+	 *            used; with virtual threads every task runs at once.
+	 * @return The executor, to be shut down by the caller.
+	 */
+	public static ExecutorService newExecutor(String name, int threads) {
+		if (Boolean.parseBoolean(System.getProperty("virtualThreads", "true"))) {
+			ThreadFactory factory = virtualThreadFactory(name);
+			if (null != factory) {
+				try {
+					logger.debug("Running {} on virtual threads", name);
+					return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+							.invoke(null, factory);
+				} catch (Exception e) {
+					logger.debug("Virtual thread executor unavailable: {}", e.toString());
+				}
+			}
+		}
+		logger.debug("Running {} on {} platform thread(s)", name, threads);
+		return Executors.newFixedThreadPool(Math.max(1, threads), platformThreadFactory(name));
+	}
+
+	/**
+	 * Get a factory of named virtual threads.
+	 *
+	 * @return The factory, or null before Java 21.
+	 */
+	private static ThreadFactory virtualThreadFactory(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			// Preview feature not enabled, e.g. Java 19 or 20.
+			return null;
+		}
+	}
+
+	/**
+	 * Get a factory of named daemon platform threads.
+	 */
+	private static ThreadFactory platformThreadFactory(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, name + "-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,31 @@
+package iris.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @author vickery_b
+ *
+ *         Declares how long tests may run. On a test method, seconds is the
+ *         budget for that test. On a test class, seconds is the default budget
+ *         for each of its tests and classSeconds is the budget shared by all of
+ *         them. A value of zero means no limit. Enforced by
+ *         {@link TimeBudgetRule}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD, ElementType.TYPE })
+public @interface TimeBudget {
+
+	/**
+	 * @return Number of seconds each test may run for.
+	 */
+	int seconds() default 0;
+
+	/**
+	 * @return Number of seconds all tests of the class may run for together.
+	 *         Only used on a test class.
+	 */
+	int classSeconds() default 0;
+}
@@ -0,0 +1,22 @@
+package iris.core;
+
+/**
+ * @author vickery_b
+ *
+ *         Thrown when a test has not enough of its {@link TimeBudget} left to
+ *         carry on. It is not a WebDriver failure and is never worth a retry.
+ */
+public class TimeBudgetExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param message
+	 *            Description of what the budget could not cover.
+	 */
+	public TimeBudgetExceededException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,275 @@
+package iris.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.internal.AssumptionViolatedException;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Enforces the {@link TimeBudget} of each test and records how the
+ *         test spent it. The {@link WaitEngine} asks this rule how much time is
+ *         left before every step, caps the step at that, and aborts the test
+ *         with a {@link TimeBudgetExceededException} once nothing is left, so a
+ *         runaway test gives up its grid slot rather than waiting out every
+ *         remaining timeout.
+ *
+ *         Tests without an annotation use the -DtestBudget VM arg (in seconds),
+ *         or have no limit if it is not given. One line per test is appended
+ *         to target/failsafe-reports/time-budgets.csv.
+ *
+ */
+public class TimeBudgetRule implements TestRule {
+
+	private static final Logger logger = LoggerFactory.getLogger(TimeBudgetRule.class);
+
+	/** File the per-test report lines are appended to. */
+	private static final String REPORT_FILE = "target/failsafe-reports/time-budgets.csv";
+
+	/** Guards the report file. */
+	private static final Lock reportLock = new ReentrantLock();
+
+	/** Milliseconds used so far by the tests of each class. */
+	private static final ConcurrentMap<Class<?>, AtomicLong> classUsage = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+	// The budget of the current test is read by every thread driving a
+	// session for it, so it is volatile; the step totals are synchronized.
+
+	/** Budget for the current test, in milliseconds, or 0 for no limit. */
+	private volatile long budgetMillis;
+
+	/** Budget for the class of the current test, in milliseconds, or 0. */
+	private volatile long classBudgetMillis;
+
+	/** Milliseconds used by the class before the current test started. */
+	private volatile long classUsedMillis;
+
+	/** The class of the current test. */
+	private volatile Class<?> testClass;
+
+	/** When the current test started, as a System.nanoTime() value. */
+	private volatile long started;
+
+	/** Whether a test is running. */
+	private volatile boolean running;
+
+	/** How the current test ended. */
+	private volatile String outcome;
+
+	/** Milliseconds spent in wait steps. */
+	private long stepMillis;
+
+	/** Number of wait steps. */
+	private int steps;
+
+	/** Description of the slowest wait step. */
+	private String slowestStep;
+
+	/** Milliseconds spent in the slowest wait step. */
+	private long slowestStepMillis;
+
+	public Statement apply(final Statement base, final Description description) {
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				outcome = "passed";
+				EventStream.setCurrentTest(description.getDisplayName());
+				try {
+					starting(description);
+					base.evaluate();
+				} catch (AssumptionViolatedException e) {
+					outcome = "skipped";
+					throw e;
+				} catch (Throwable t) {
+					outcome = t instanceof TimeBudgetExceededException ? "aborted" : "failed";
+					EventStream.emit("failure", description.getDisplayName(), -1, t.getClass().getSimpleName(),
+							t.getMessage());
+					throw t;
+				} finally {
+					finished(description);
+					EventStream.setCurrentTest(null);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Starts timing a test. Aborts it before it opens a session if its class
+	 * has already used up the class budget.
+	 */
+	private void starting(Description description) {
+		TimeBudget methodBudget = description.getAnnotation(TimeBudget.class);
+		TimeBudget classBudget = null == description.getTestClass() ? null
+				: description.getTestClass().getAnnotation(TimeBudget.class);
+
+		int seconds = Integer.getInteger("testBudget", 0);
+		if (null != methodBudget && methodBudget.seconds() > 0) {
+			seconds = methodBudget.seconds();
+		} else if (null != classBudget && classBudget.seconds() > 0) {
+			seconds = classBudget.seconds();
+		}
+
+		budgetMillis = TimeUnit.SECONDS.toMillis(seconds);
+		classBudgetMillis = null == classBudget ? 0 : TimeUnit.SECONDS.toMillis(classBudget.classSeconds());
+		testClass = description.getTestClass();
+		classUsedMillis = null == testClass ? 0 : usage(testClass).get();
+		started = System.nanoTime();
+		running = true;
+		EventStream.emit("test_start", description.getDisplayName(), -1, null,
+				0 == budgetMillis ? null : "budgetMs=" + budgetMillis);
+		synchronized (this) {
+			stepMillis = 0;
+			steps = 0;
+			slowestStep = null;
+			slowestStepMillis = 0;
+		}
+
+		check("the test started");
+	}
+
+	/**
+	 * Stops timing a test and reports how it spent its budget.
+	 */
+	private void finished(Description description) {
+		running = false;
+		long elapsed = elapsedMillis();
+		if (null != testClass) {
+			usage(testClass).addAndGet(elapsed);
+		}
+
+		long stepMillis;
+		int steps;
+		String slowestStep;
+		long slowestStepMillis;
+		synchronized (this) {
+			stepMillis = this.stepMillis;
+			steps = this.steps;
+			slowestStep = this.slowestStep;
+			slowestStepMillis = this.slowestStepMillis;
+		}
+
+		EventStream.emit("test_end", description.getDisplayName(), elapsed, outcome, "waitMs=" + stepMillis
+				+ " waitSteps=" + steps);
+		logger.info("Time budget for {}: {} used {} ms of {} ms ({} ms in {} wait step(s), slowest '{}' {} ms)",
+				description.getDisplayName(), outcome, elapsed, 0 == budgetMillis ? "unlimited" : budgetMillis,
+				stepMillis, steps, slowestStep, slowestStepMillis);
+		report(description.getDisplayName() + "," + outcome + "," + budgetMillis + "," + elapsed + "," + stepMillis
+				+ "," + (elapsed - stepMillis) + "," + steps + ",\"" + String.valueOf(slowestStep).replace("\"", "'")
+				+ "\"," + slowestStepMillis);
+	}
+
+	/**
+	 * Get the time left for the current test, taking the class budget into
+	 * account.
+	 *
+	 * @return Milliseconds left, or Long.MAX_VALUE if there is no limit.
+	 */
+	public long remainingMillis() {
+		if (!running) {
+			return Long.MAX_VALUE;
+		}
+		long elapsed = elapsedMillis();
+		long remaining = Long.MAX_VALUE;
+		if (budgetMillis > 0) {
+			remaining = budgetMillis - elapsed;
+		}
+		if (classBudgetMillis > 0) {
+			remaining = Math.min(remaining, classBudgetMillis - classUsedMillis - elapsed);
+		}
+		return remaining;
+	}
+
+	/**
+	 * Aborts the current test if its budget is used up.
+	 *
+	 * @param next
+	 *            Description of what the test was about to do.
+	 * @throws TimeBudgetExceededException
+	 *             If no time is left.
+	 */
+	public void check(String next) {
+		if (remainingMillis() <= 0) {
+			throw new TimeBudgetExceededException("Time budget used up after " + elapsedMillis()
+					+ " ms, aborting before " + next);
+		}
+	}
+
+	/**
+	 * Records a finished wait step against the current test. Steps may be
+	 * recorded from several threads when a test drives more than one session.
+	 *
+	 * @param step
+	 *            Description of the step.
+	 * @param millis
+	 *            Milliseconds the step took.
+	 */
+	public synchronized void recordStep(String step, long millis) {
+		stepMillis += millis;
+		steps++;
+		if (millis >= slowestStepMillis) {
+			slowestStep = step;
+			slowestStepMillis = millis;
+		}
+	}
+
+	private long elapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+	}
+
+	private static AtomicLong usage(Class<?> testClass) {
+		AtomicLong used = classUsage.get(testClass);
+		if (null == used) {
+			classUsage.putIfAbsent(testClass, new AtomicLong());
+			used = classUsage.get(testClass);
+		}
+		return used;
+	}
+
+	/**
+	 * Appends a line to the report, writing the header first if the report is
+	 * new.
+	 */
+	private static void report(String line) {
+		reportLock.lock();
+		try {
+			File file = new File(REPORT_FILE);
+			boolean header = !file.exists();
+			file.getParentFile().mkdirs();
+
+			Writer writer = null;
+			try {
+				writer = new FileWriter(file, true);
+				if (header) {
+					writer.write("test,outcome,budgetMs,elapsedMs,waitMs,otherMs,waitSteps,slowestStep,slowestStepMs\n");
+				}
+				writer.write(line + "\n");
+			} catch (IOException e) {
+				logger.error("Failed to write time budget report\n" + e.getMessage());
+			} finally {
+				if (null != writer) {
+					try {
+						writer.close();
+					} catch (IOException e) {
+						logger.error("Failed to close time budget report\n" + e.getMessage());
+					}
+				}
+			}
+		} finally {
+			reportLock.unlock();
+		}
+	}
+}
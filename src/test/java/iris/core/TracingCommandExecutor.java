@@ -0,0 +1,77 @@
+package iris.core;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openqa.selenium.logging.LocalLogs;
+import org.openqa.selenium.logging.NeedsLocalLogs;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.Response;
+
+/**
+ * @author vickery_b
+ *
+ *         Sends WebDriver commands through another executor and records a
+ *         span for each in the {@link CommandTrace}: the command name, the
+ *         element it acted on or the locator it searched by, how long the
+ *         round trip took and whether it succeeded.
+ *
+ */
+public class TracingCommandExecutor implements CommandExecutor, NeedsLocalLogs {
+
+	/** Sends the commands. */
+	private final CommandExecutor delegate;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param delegate
+	 *            Sends the commands.
+	 */
+	public TracingCommandExecutor(CommandExecutor delegate) {
+		this.delegate = delegate;
+	}
+
+	public Response execute(Command command) throws IOException {
+		long start = System.nanoTime();
+		Map<String, String> args = new HashMap<String, String>();
+		Map<String, ?> parameters = command.getParameters();
+		if (null != parameters) {
+			put(args, "element", parameters.get("id"));
+			put(args, "using", parameters.get("using"));
+			put(args, "value", parameters.get("value"));
+		}
+		try {
+			Response response = delegate.execute(command);
+			Integer status = null == response ? null : response.getStatus();
+			args.put("outcome", null == status || 0 == status ? "ok" : "status " + status);
+			return response;
+		} catch (IOException e) {
+			args.put("outcome", e.getClass().getSimpleName());
+			throw e;
+		} catch (RuntimeException e) {
+			args.put("outcome", e.getClass().getSimpleName());
+			throw e;
+		} finally {
+			CommandTrace.command(command.getName(), start, args);
+		}
+	}
+
+	public void setLocalLogs(LocalLogs logs) {
+		if (delegate instanceof NeedsLocalLogs) {
+			((NeedsLocalLogs) delegate).setLocalLogs(logs);
+		}
+	}
+
+	/**
+	 * Adds a command parameter to the span, if it is a string. Typed text is
+	 * sent as an array and is left out.
+	 */
+	private static void put(Map<String, String> args, String name, Object value) {
+		if (value instanceof String) {
+			args.put(name, (String) value);
+		}
+	}
+}
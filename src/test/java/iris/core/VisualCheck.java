@@ -0,0 +1,287 @@
+package iris.core;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.imageio.ImageIO;
+
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Compares a screenshot of one element (normally the Cesium map
+ *         canvas) against a stored baseline image. Images of different sizes
+ *         never match. Otherwise a 64 bit difference hash of both images is
+ *         compared first; only when the hashes differ is a pixel-by-pixel
+ *         comparison done, which passes if few enough pixels differ by more
+ *         than the colour tolerance. Baselines are decoded once per JVM and
+ *         kept in memory.
+ *
+ *         The element is cropped from the screenshot by its location and size
+ *         scaled by the page's window.devicePixelRatio, as screenshots are
+ *         taken in device pixels, e.g. twice the CSS size on a high density
+ *         display.
+ *
+ *         Baselines are read from the directory given by the -DvisualBaselines
+ *         VM arg, default src/test/resources/visual-baselines. A missing
+ *         baseline is recorded from the current screenshot, as is every
+ *         baseline when -DvisualUpdate=true is given. Diff images of failed
+ *         comparisons go to the {@link ArtifactStore}.
+ *
+ */
+public class VisualCheck {
+
+	private static final Logger logger = LoggerFactory.getLogger(VisualCheck.class);
+
+	/** Decoded baselines, keyed by file path. */
+	private static final ConcurrentMap<String, Baseline> baselines = new ConcurrentHashMap<String, Baseline>();
+
+	/** A decoded baseline image and its hash. */
+	private static final class Baseline {
+		private final int width;
+		private final int height;
+		private final int[] pixels;
+		private final long hash;
+
+		private Baseline(BufferedImage image) {
+			this.width = image.getWidth();
+			this.height = image.getHeight();
+			this.pixels = image.getRGB(0, 0, width, height, null, 0, width);
+			this.hash = differenceHash(image);
+		}
+	}
+
+	/** The outcome of a comparison. */
+	public static final class Result {
+		private final boolean matched;
+		private final String message;
+
+		private Result(boolean matched, String message) {
+			this.matched = matched;
+			this.message = message;
+		}
+
+		/**
+		 * @return True if the screenshot matched the baseline.
+		 */
+		public boolean isMatched() {
+			return matched;
+		}
+
+		/**
+		 * @return Description of the comparison.
+		 */
+		public String getMessage() {
+			return message;
+		}
+	}
+
+	/** Directory holding the baseline images. */
+	private final File baselineDir;
+
+	/** Largest difference in any colour channel for pixels to be equal. */
+	private final int tolerance;
+
+	/** Largest fraction of pixels which may differ for images to match. */
+	private final double maxDiffRatio;
+
+	/**
+	 * Constructor, using the -DvisualBaselines, -DvisualTolerance (default 16)
+	 * and -DvisualMaxDiff (default 0.01) VM args.
+	 */
+	public VisualCheck() {
+		this(new File(System.getProperty("visualBaselines", "src/test/resources/visual-baselines")),
+				Integer.getInteger("visualTolerance", 16),
+				Double.parseDouble(System.getProperty("visualMaxDiff", "0.01")));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param baselineDir
+	 *            Directory holding the baseline images.
+	 * @param tolerance
+	 *            Largest difference in any colour channel (0-255) for two
+	 *            pixels to count as equal.
+	 * @param maxDiffRatio
+	 *            Largest fraction of pixels which may differ.
+	 */
+	public VisualCheck(File baselineDir, int tolerance, double maxDiffRatio) {
+		this.baselineDir = baselineDir;
+		this.tolerance = tolerance;
+		this.maxDiffRatio = maxDiffRatio;
+	}
+
+	/**
+	 * Takes a screenshot of the specified element and compares it with the
+	 * baseline of the specified name.
+	 *
+	 * @param driver
+	 *            The web driver, which must support screenshots.
+	 * @param element
+	 *            The element to capture.
+	 * @param name
+	 *            The name of the baseline.
+	 * @return The result of the comparison.
+	 * @throws IOException
+	 *             If the screenshot or baseline cannot be read or written.
+	 */
+	public Result compare(WebDriver driver, WebElement element, String name) throws IOException {
+		BufferedImage actual = capture(driver, element);
+		File file = new File(baselineDir, name + ".png");
+
+		if (Boolean.getBoolean("visualUpdate") || !file.exists()) {
+			file.getParentFile().mkdirs();
+			ImageIO.write(actual, "png", file);
+			baselines.put(file.getPath(), new Baseline(actual));
+			logger.info("Recorded visual baseline {}", file);
+			return new Result(true, "Recorded new baseline " + file);
+		}
+
+		Baseline baseline = baselines.get(file.getPath());
+		if (null == baseline) {
+			baseline = new Baseline(ImageIO.read(file));
+			baselines.putIfAbsent(file.getPath(), baseline);
+		}
+
+		// The hash is taken at 9x8 whatever the size, so it cannot tell sizes
+		// apart
+		if (actual.getWidth() != baseline.width || actual.getHeight() != baseline.height) {
+			return new Result(false, "Size of '" + name + "' is " + actual.getWidth() + "x" + actual.getHeight()
+					+ ", baseline is " + baseline.width + "x" + baseline.height);
+		}
+
+		int distance = Long.bitCount(baseline.hash ^ differenceHash(actual));
+		if (0 == distance) {
+			return new Result(true, "Hash of '" + name + "' matches the baseline");
+		}
+
+		int[] pixels = actual.getRGB(0, 0, baseline.width, baseline.height, null, 0, baseline.width);
+		int different = 0;
+		for (int i = 0; i < pixels.length; i++) {
+			if (!similar(pixels[i], baseline.pixels[i])) {
+				different++;
+			}
+		}
+
+		double ratio = (double) different / pixels.length;
+		String message = String.format("'%s' differs from the baseline in %.3f%% of pixels (hash distance %d)", name,
+				ratio * 100, distance);
+		if (ratio > maxDiffRatio) {
+			writeDiff(name, pixels, baseline);
+			return new Result(false, message);
+		}
+		return new Result(true, message);
+	}
+
+	/**
+	 * Takes a screenshot and crops it to the specified element.
+	 */
+	private BufferedImage capture(WebDriver driver, WebElement element) throws IOException {
+		byte[] png = ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES);
+		BufferedImage screenshot = ImageIO.read(new ByteArrayInputStream(png));
+
+		double ratio = devicePixelRatio(driver);
+		Point location = element.getLocation();
+		Dimension size = element.getSize();
+		int x = Math.max(0, Math.min((int) Math.round(location.getX() * ratio), screenshot.getWidth() - 1));
+		int y = Math.max(0, Math.min((int) Math.round(location.getY() * ratio), screenshot.getHeight() - 1));
+		int width = Math.max(1, Math.min((int) Math.round(size.getWidth() * ratio), screenshot.getWidth() - x));
+		int height = Math.max(1, Math.min((int) Math.round(size.getHeight() * ratio), screenshot.getHeight() - y));
+
+		return screenshot.getSubimage(x, y, width, height);
+	}
+
+	/**
+	 * Get the number of screenshot pixels per CSS pixel of the page, or 1 if
+	 * the driver cannot tell.
+	 */
+	private static double devicePixelRatio(WebDriver driver) {
+		if (!(driver instanceof JavascriptExecutor)) {
+			return 1;
+		}
+		try {
+			Object ratio = ((JavascriptExecutor) driver).executeScript("return window.devicePixelRatio;");
+			if (ratio instanceof Number && ((Number) ratio).doubleValue() > 0) {
+				return ((Number) ratio).doubleValue();
+			}
+		} catch (Exception e) {
+			logger.debug("Could not read the device pixel ratio: {}", e.getMessage());
+		}
+		return 1;
+	}
+
+	/**
+	 * Checks whether two ARGB pixels differ by no more than the tolerance in
+	 * each colour channel.
+	 */
+	private boolean similar(int a, int b) {
+		for (int shift = 0; shift <= 16; shift += 8) {
+			if (Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff)) > tolerance) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes an image highlighting the differing pixels in red.
+	 */
+	private void writeDiff(String name, int[] pixels, Baseline baseline) {
+		BufferedImage diff = new BufferedImage(baseline.width, baseline.height, BufferedImage.TYPE_INT_RGB);
+		int[] marked = new int[pixels.length];
+		for (int i = 0; i < pixels.length; i++) {
+			marked[i] = similar(pixels[i], baseline.pixels[i]) ? (pixels[i] >> 2) & 0x3f3f3f : 0xff0000;
+		}
+		diff.setRGB(0, 0, baseline.width, baseline.height, marked, 0, baseline.width);
+
+		try {
+			ByteArrayOutputStream png = new ByteArrayOutputStream();
+			ImageIO.write(diff, "png", png);
+			File file = ArtifactStore.get().put("VisualDiff-" + name.replace('/', '-') + ".png", png.toByteArray());
+			logger.info("Visual difference stored in {}", file);
+		} catch (IOException e) {
+			logger.error("Failed to store visual difference\n" + e.getMessage());
+		}
+	}
+
+	/**
+	 * Computes a 64 bit difference hash: the image is scaled to 9x8 grey
+	 * pixels and each bit records whether a pixel is brighter than its
+	 * neighbour to the right.
+	 */
+	private static long differenceHash(BufferedImage image) {
+		BufferedImage small = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D graphics = small.createGraphics();
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		graphics.drawImage(image, 0, 0, 9, 8, null);
+		graphics.dispose();
+
+		long hash = 0;
+		for (int y = 0; y < 8; y++) {
+			for (int x = 0; x < 8; x++) {
+				hash <<= 1;
+				if (small.getRaster().getSample(x, y, 0) > small.getRaster().getSample(x + 1, y, 0)) {
+					hash |= 1;
+				}
+			}
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,270 @@
+package iris.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vickery_b
+ *
+ *         Hands out time to the wait helpers from a single deadline per step.
+ *         The outermost wait (or an explicit step started with
+ *         {@link #beginStep}) fixes the deadline; every wait nested inside it,
+ *         such as re-finding a stale element, draws on the time left rather
+ *         than starting a fresh timeout. While a step is running the driver's
+ *         implicit wait is switched off, so a failed findElement returns
+ *         immediately instead of blocking for the implicit timeout, and it is
+ *         restored when the step ends.
+ *
+ *         Each step is also capped at the time left in the test's
+ *         {@link TimeBudget}, and the test is aborted when none is left.
+ *         With -DnetworkSplit=true each step is also split into server and
+ *         client time by a {@link NetworkProbe}, and with -Dtrace=true the
+ *         commands sent during each step are traced by the
+ *         {@link CommandTrace}.
+ *
+ */
+public class WaitEngine {
+
+	private static final Logger logger = LoggerFactory.getLogger(WaitEngine.class);
+
+	/** The test whose driver and implicit timeout this engine manages. */
+	private final IrisSeleniumBase selenium;
+
+	/** The time budget of the test. */
+	private final TimeBudgetRule timeBudget;
+
+	/** Time allowed for one step, in milliseconds. */
+	private long stepTimeoutMillis;
+
+	/** The deadline of the current step, as a System.nanoTime() value. */
+	private long deadline;
+
+	/** Number of waits (and explicit steps) currently entered. */
+	private int depth;
+
+	/** Description of the current step. */
+	private String step;
+
+	/** When the current step started, as a System.nanoTime() value. */
+	private long stepStarted;
+
+	/** Whether the current step was cut short to fit the time budget. */
+	private boolean budgetCapped;
+
+	/** The first failure within the current step, or null. */
+	private RuntimeException failure;
+
+	/** Where step latencies are collected during a load run, or null. */
+	private LatencyStats latencies;
+
+	/** Splits the current step into server and client time, or null. */
+	private NetworkProbe networkProbe;
+
+	/**
+	 * Creates an engine for the specified test. The step timeout defaults to
+	 * the -DstepTimeout VM arg (in seconds), or 15 seconds if not given.
+	 *
+	 * @param selenium
+	 *            The test whose driver is waited on.
+	 * @param timeBudget
+	 *            The time budget of the test.
+	 */
+	public WaitEngine(IrisSeleniumBase selenium, TimeBudgetRule timeBudget) {
+		this.selenium = selenium;
+		this.timeBudget = timeBudget;
+		this.stepTimeoutMillis = TimeUnit.SECONDS.toMillis(Integer.getInteger("stepTimeout",
+				IrisAbstractSelenium.WAIT_TIMEOUT_SECONDS));
+	}
+
+	/**
+	 * Get the time allowed for one step.
+	 *
+	 * @return The step timeout in milliseconds.
+	 */
+	public long getStepTimeoutMillis() {
+		return stepTimeoutMillis;
+	}
+
+	/**
+	 * Set the time allowed for one step.
+	 *
+	 * @param stepTimeoutMillis
+	 *            The step timeout in milliseconds.
+	 */
+	public void setStepTimeoutMillis(long stepTimeoutMillis) {
+		this.stepTimeoutMillis = stepTimeoutMillis;
+	}
+
+	/**
+	 * Set where the latency of each step is collected, e.g. by a virtual user
+	 * of a load run.
+	 *
+	 * @param latencies
+	 *            The statistics, or null to stop collecting.
+	 */
+	public void setLatencyStats(LatencyStats latencies) {
+		this.latencies = latencies;
+	}
+
+	/**
+	 * Enters a wait. If no step is running, a new step is started with the
+	 * default step timeout.
+	 *
+	 * @param label
+	 *            Description of the wait, used if it starts a new step.
+	 * @return The time left in the current step, in milliseconds.
+	 * @throws TimeoutException
+	 *             If the current step has no time left.
+	 */
+	public long enter(String label) {
+		return enter(label, stepTimeoutMillis);
+	}
+
+	/**
+	 * Enters a wait. If no step is running, a new step is started with the
+	 * specified budget; otherwise the wait draws on the current step.
+	 *
+	 * @param label
+	 *            Description of the wait, used if it starts a new step.
+	 * @param budgetMillis
+	 *            Time allowed if this wait starts a new step, in milliseconds.
+	 * @return The time left in the current step, in milliseconds.
+	 * @throws TimeoutException
+	 *             If the current step has no time left.
+	 * @throws TimeBudgetExceededException
+	 *             If the test has no time left, or the current step was cut
+	 *             short to fit the time budget and has no time left.
+	 */
+	public long enter(String label, long budgetMillis) {
+		if (0 == depth) {
+			timeBudget.check(label);
+			stepStarted = System.nanoTime();
+			long allowed = Math.min(budgetMillis, timeBudget.remainingMillis());
+			budgetCapped = allowed < budgetMillis;
+			deadline = stepStarted + TimeUnit.MILLISECONDS.toNanos(allowed);
+			step = label;
+			CommandTrace.beginStep(label);
+			setImplicitWait(0);
+			networkProbe = NetworkProbe.startForStep(selenium.getDriver());
+		}
+		depth++;
+
+		long remaining = remainingMillis();
+		if (remaining <= 0) {
+			RuntimeException e = failed(new TimeoutException("No time left in step '" + step + "' for " + label));
+			exit();
+			throw e;
+		}
+		return remaining;
+	}
+
+	/**
+	 * Exits a wait entered with {@link #enter}. When the outermost wait exits
+	 * the step ends and the implicit wait is restored.
+	 */
+	public void exit() {
+		depth--;
+		if (0 == depth) {
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stepStarted);
+			timeBudget.recordStep(step, millis);
+			if (null != latencies) {
+				latencies.record(step, millis, null == failure);
+			}
+			EventStream.emit("step", step, millis, null == failure ? "passed" : "failed",
+					null == failure ? null : failure.getClass().getSimpleName() + ": " + failure.getMessage());
+			NetworkProbe.stopForStep(networkProbe, step);
+			networkProbe = null;
+			String outcome = null == failure ? "passed" : "failed";
+			step = null;
+			failure = null;
+			budgetCapped = false;
+			setImplicitWait(selenium.getTimeout());
+			CommandTrace.endStep(outcome);
+		}
+	}
+
+	/**
+	 * Records that a wait within the current step failed. Call before exiting
+	 * the wait. A timeout of a step which was cut short to fit the time budget
+	 * is the budget running out, so it becomes a
+	 * {@link TimeBudgetExceededException}, which is not retried.
+	 *
+	 * @param e
+	 *            The failure.
+	 * @return The failure, so it can be rethrown.
+	 */
+	public RuntimeException failed(RuntimeException e) {
+		if (budgetCapped && e instanceof TimeoutException) {
+			RuntimeException exceeded = new TimeBudgetExceededException("Time budget used up in step '" + step
+					+ "': " + e.getMessage());
+			exceeded.initCause(e);
+			e = exceeded;
+		}
+		if (null == failure) {
+			failure = e;
+		}
+		return e;
+	}
+
+	/**
+	 * Starts an explicit step, so that the helpers called until
+	 * {@link #endStep} share one deadline.
+	 *
+	 * @param label
+	 *            Description of the step.
+	 * @param timeoutMillis
+	 *            Time allowed for the whole step, in milliseconds.
+	 */
+	public void beginStep(String label, long timeoutMillis) {
+		enter(label, timeoutMillis);
+	}
+
+	/**
+	 * Ends an explicit step started with {@link #beginStep}.
+	 */
+	public void endStep() {
+		exit();
+	}
+
+	/**
+	 * Get the time left in the current step.
+	 *
+	 * @return Milliseconds until the deadline, or the step timeout if no step
+	 *         is running.
+	 */
+	public long remainingMillis() {
+		if (0 == depth) {
+			return stepTimeoutMillis;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+	}
+
+	/**
+	 * Get the description of the current step.
+	 *
+	 * @return The step, or null if no step is running.
+	 */
+	public String getStep() {
+		return step;
+	}
+
+	/**
+	 * Sets the driver's implicit wait. Nothing is sent to the driver when the
+	 * test does not use an implicit wait.
+	 */
+	private void setImplicitWait(int seconds) {
+		WebDriver driver = selenium.getDriver();
+		if (null == driver || selenium.getTimeout() <= 0) {
+			return;
+		}
+		try {
+			driver.manage().timeouts().implicitlyWait(seconds, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			logger.debug("Could not set the implicit wait: {}", e.getMessage());
+		}
+	}
+}
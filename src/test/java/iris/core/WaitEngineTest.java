@@ -0,0 +1,71 @@
+package iris.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.openqa.selenium.TimeoutException;
+
+/**
+ * @author vickery_b
+ *
+ *         Checks that a step which times out because the test's time budget
+ *         cut it short fails as the budget running out, and that any other
+ *         step fails as a timeout.
+ *
+ */
+public class WaitEngineTest {
+
+	/** A test with no test methods of its own, to wait for. */
+	static class Helpers extends IrisAbstractSelenium {
+	}
+
+	/** Budgets to run the engine under; the methods are never run. */
+	static class Budgeted {
+		@TimeBudget(seconds = 1)
+		public void tight() {
+		}
+
+		@TimeBudget(seconds = 60)
+		public void generous() {
+		}
+	}
+
+	@Test
+	public void cappedStepExceedsBudget() throws Throwable {
+		assertEquals(TimeBudgetExceededException.class, timeoutUnder("tight"));
+	}
+
+	@Test
+	public void uncappedStepTimesOut() throws Throwable {
+		assertEquals(TimeoutException.class, timeoutUnder("generous"));
+	}
+
+	/**
+	 * Times out a 15 second step within a test of the specified budget.
+	 *
+	 * @return The class of the failure the engine reports.
+	 */
+	private static Class<?> timeoutUnder(String method) throws Throwable {
+		final TimeBudgetRule rule = new TimeBudgetRule();
+		final Class<?>[] thrown = new Class<?>[1];
+		Description description = Description.createTestDescription(Budgeted.class, method,
+				Budgeted.class.getMethod(method).getAnnotation(TimeBudget.class));
+		rule.apply(new Statement() {
+			@Override
+			public void evaluate() {
+				WaitEngine engine = new WaitEngine(new Helpers(), rule);
+				long timeout = engine.enter("load //*[@id='map']", 15000);
+				assertTrue(timeout <= 15000);
+				try {
+					thrown[0] = engine.failed(new TimeoutException("Timed out after " + timeout + " ms")).getClass();
+				} finally {
+					engine.exit();
+				}
+			}
+		}, description).evaluate();
+		return thrown[0];
+	}
+}
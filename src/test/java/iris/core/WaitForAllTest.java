@@ -0,0 +1,44 @@
+package iris.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * @author vickery_b
+ *
+ *         Checks that waiting for several elements at once finds a locator
+ *         given more than once, and returns an element for each locator given.
+ *
+ */
+public class WaitForAllTest {
+
+	/** A test with no test methods of its own, to call the helpers on. */
+	static class Helpers extends IrisAbstractSelenium {
+	}
+
+	@Test
+	public void findsDuplicatedLocator() {
+		FakeRemoteEnd remote = new FakeRemoteEnd(0);
+		RemoteWebDriver driver = new RemoteWebDriver(remote, new DesiredCapabilities());
+		Helpers helpers = new Helpers();
+		helpers.bindSession(driver);
+		try {
+			List<WebElement> elements = helpers.waitForAllIn(driver, By.id("map"), By.id("filter"), By.id("map"));
+
+			assertEquals(3, elements.size());
+			assertEquals(elements.get(0), elements.get(2));
+			assertEquals(1, remote.count(DriverCommand.EXECUTE_SCRIPT));
+		} finally {
+			helpers.bindSession(null);
+			driver.quit();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package iris.core;
+
+/**
+ * @author vickery_b
+ *
+ *         Enum defining how the wait helpers detect that an element has been
+ *         loaded or unloaded.
+ */
+public enum WaitMode
+{
+    /**
+     * Poll the WebDriver every 500 milliseconds.
+     */
+    POLL,
+
+    /**
+     * Observe the DOM inside the browser with a MutationObserver and return as
+     * soon as it changes to match. Falls back to polling for locators and
+     * drivers which cannot run the observer script.
+     */
+    EVENT;
+
+    /**
+     * Get the wait mode chosen with the -DwaitMode VM arg.
+     * 
+     * @return The chosen wait mode, or POLL if none was given.
+     */
+    public static WaitMode fromSystemProperty()
+    {
+        String mode = System.getProperty("waitMode");
+        return null == mode ? POLL : valueOf(mode.toUpperCase());
+    }
+}
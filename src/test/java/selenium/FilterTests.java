@@ -2,13 +2,24 @@ package selenium;
 
 import java.io.IOException;
 
+import org.junit.Assume;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.runner.RunWith;
 import org.openqa.selenium.By;
 import org.openqa.selenium.WebDriver;
 
+import iris.core.BrowserMatrix;
+import iris.core.DataRows;
+import iris.core.FixtureFactory;
+import iris.core.FrameRateProbe;
 import iris.core.IrisAbstractSelenium;
+import iris.core.LoadProfile;
+import iris.core.LoadScenario;
+import iris.core.NetworkProbe;
+import iris.core.RowTask;
 
+@RunWith(BrowserMatrix.class)
 public class FilterTests extends IrisAbstractSelenium{
 	
 	/**
@@ -22,25 +33,115 @@ public class FilterTests extends IrisAbstractSelenium{
 	public void createDWITHINFilter() throws IOException, InterruptedException {
 		
 		WebDriver driver = loadIrisCesiumMap("quick test");
+		FilterTestsPage page = page(FilterTestsPage.class);
+		FrameRateProbe frames = startFrameProbe();
+		NetworkProbe network = startNetworkProbe();
         
-		// Wait for then click the filter
-        waitForThenClickXpath(driver, getData("FilterButton"));
-        
-        // Wait for then click the advanced filter options
-        waitForThenClickXpath(driver, getData("AdvancedFilterOptions"));
-        
-        // This will be the name of your filter
-        waitForClearTextThenSet(driver, By.xpath(getData("FilterName")), getData("FilterNameKeys"));
-        
-        // The filter to be applied
-        waitForClearTextThenSet(driver, By.xpath(getData("FilterToApply")), getData("FilterToApplyKeys"));
-
-        // Apply the filter
-        waitForThenClickXpath(driver, getData("ApplyTheFilter"));
+		// The clicks below run in a single script call, each waiting in the
+		// browser for its element.
+		flow(driver)
+				// Wait for then click the filter
+				.click(page.filterButtonBy())
+				// Wait for then click the advanced filter options
+				.click(page.advancedFilterOptionsBy())
+				.run();
+		// The fields are typed into with native key events. On first use
+		// each is waited for until it is enabled, and the page keeps the
+		// handle, so the second use does not find it again.
+		// This will be the name of your filter
+		page.filterName().clear();
+		page.filterName().sendKeys(page.filterNameKeys());
+		// The filter to be applied
+		page.filterToApply().clear();
+		page.filterToApply().sendKeys(page.filterToApplyKeys());
+		// Apply the filter, once the button is enabled
+		page.applyTheFilter().click();
+		// Wait for the filter request to come back from the server
+		network.stop("apply filter", 15000);
         
         sleep(4000);
+        capturePageTimings("apply filter");
+        frames.stop("apply filter");
         
         quitDriver("quick test");
 	}
 
+	/**
+	 * Time the locators in this class's data file with the advanced filter
+	 * options open, and report the slow, ambiguous and brittle ones.
+	 * 
+	 * @throws IOException
+	 */
+	@Ignore
+	@Test
+	public void analyzeFilterLocators() throws IOException {
+		
+		WebDriver driver = loadIrisCesiumMap("locator analysis");
+		flow(driver)
+				.click(By.xpath(getData("FilterButton")))
+				.click(By.xpath(getData("AdvancedFilterOptions")))
+				.run();
+		
+		analyzeLocators();
+		
+		quitDriver("locator analysis");
+	}
+
+	/**
+	 * Create and apply every DWITHIN filter in DWITHINFilters.csv, spread
+	 * across four browser sessions.
+	 * 
+	 * @throws Exception
+	 */
+	@Ignore
+	@Test
+	public void createDWITHINFilters() throws Exception {
+		
+		runForEachRow("DWITHINFilters.csv", 4, new RowTask() {
+			public void run(DataRows.Row row) throws Exception {
+				WebDriver driver = loadIrisCesiumMap("DWITHIN filter " + row.getIndex());
+				
+				flow(driver)
+						.click(By.xpath(getData("FilterButton")))
+						.click(By.xpath(getData("AdvancedFilterOptions")))
+						.setText(By.xpath(getData("FilterName")), row.get("FilterNameKeys"))
+						.setText(By.xpath(getData("FilterToApply")), row.get("FilterToApplyKeys"))
+						.click(By.xpath(getData("ApplyTheFilter")))
+						.run();
+				capturePageTimings("apply filter");
+			}
+		});
+	}
+
+	/**
+	 * Load the map and apply a generated DWITHIN filter as many virtual
+	 * users at once. Only runs in load mode, i.e. with -DloadUsers set; see
+	 * {@link LoadProfile#fromSystemProperties()} for the other settings.
+	 * 
+	 * @throws Exception
+	 */
+	@Ignore
+	@Test
+	public void loadDWITHINFilter() throws Exception {
+		
+		LoadProfile profile = LoadProfile.fromSystemProperties();
+		Assume.assumeTrue("Load mode is off, set -DloadUsers", profile.getUsers() > 0);
+		
+		runLoad(profile, new LoadScenario() {
+			public void run(int user, int iteration) throws Exception {
+				WebDriver driver = loadIrisCesiumMap("load user " + user + " iteration " + iteration);
+				FixtureFactory data = FixtureFactory.current();
+				
+				flow(driver)
+						.click(By.xpath(getData("FilterButton")))
+						.click(By.xpath(getData("AdvancedFilterOptions")))
+						.setText(By.xpath(getData("FilterName")), data.name("Load filter"))
+						.setText(By.xpath(getData("FilterToApply")),
+								data.dwithin("the_geom", FixtureFactory.Area.WALES, 50))
+						.click(By.xpath(getData("ApplyTheFilter")))
+						.run();
+			}
+		});
+	}
+
 }
@@ -0,0 +1,112 @@
+package selenium;
+
+import java.io.IOException;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.WebElement;
+
+import iris.core.DataPage;
+
+/**
+ * Page object generated from FilterTests.txt by PageObjectGenerator.
+ * Do not edit; regenerate it after changing the data file.
+ */
+public class FilterTestsPage extends DataPage {
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param searchContext
+	 *            Where elements are found, normally the web driver.
+	 * @throws IOException
+	 *             If the data file cannot be read.
+	 */
+	public FilterTestsPage(SearchContext searchContext) throws IOException {
+		super(searchContext, FilterTests.class);
+	}
+
+	/**
+	 * @return The element at //*[@id="filterBody"]/div[1]/h3/button[1]
+	 */
+	public WebElement advancedFilterOptions() {
+		return element("AdvancedFilterOptions");
+	}
+
+	/**
+	 * @return The locator //*[@id="filterBody"]/div[1]/h3/button[1]
+	 */
+	public By advancedFilterOptionsBy() {
+		return by("AdvancedFilterOptions");
+	}
+
+	/**
+	 * @return The element at //*[@id="filterBody"]/div[1]/button
+	 */
+	public WebElement applyTheFilter() {
+		return element("ApplyTheFilter");
+	}
+
+	/**
+	 * @return The locator //*[@id="filterBody"]/div[1]/button
+	 */
+	public By applyTheFilterBy() {
+		return by("ApplyTheFilter");
+	}
+
+	/**
+	 * @return The element at //*[@id="aside"]/div[1]/ul/li[2]/button/img
+	 */
+	public WebElement filterButton() {
+		return element("FilterButton");
+	}
+
+	/**
+	 * @return The locator //*[@id="aside"]/div[1]/ul/li[2]/button/img
+	 */
+	public By filterButtonBy() {
+		return by("FilterButton");
+	}
+
+	/**
+	 * @return The element at //*[@id="filterName"]
+	 */
+	public WebElement filterName() {
+		return element("FilterName");
+	}
+
+	/**
+	 * @return The locator //*[@id="filterName"]
+	 */
+	public By filterNameBy() {
+		return by("FilterName");
+	}
+
+	/**
+	 * @return The data value, by default: My First Filter
+	 */
+	public String filterNameKeys() {
+		return text("FilterNameKeys");
+	}
+
+	/**
+	 * @return The element at //*[@id="filterBody"]/div[1]/div[2]/textarea
+	 */
+	public WebElement filterToApply() {
+		return element("FilterToApply");
+	}
+
+	/**
+	 * @return The locator //*[@id="filterBody"]/div[1]/div[2]/textarea
+	 */
+	public By filterToApplyBy() {
+		return by("FilterToApply");
+	}
+
+	/**
+	 * @return The data value, by default: DWITHIN(the_geom, POINT(-4.04254 52.18759), 10,  kilometers)
+	 */
+	public String filterToApplyKeys() {
+		return text("FilterToApplyKeys");
+	}
+}